@@ -0,0 +1,69 @@
+/* -*-mode:java; c-basic-offset:2; indent-tabs-mode:nil -*- */
+/*
+Copyright (c) 2002-2014 ymnk, JCraft,Inc. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+  1. Redistributions of source code must retain the above copyright notice,
+     this list of conditions and the following disclaimer.
+
+  2. Redistributions in binary form must reproduce the above copyright 
+     notice, this list of conditions and the following disclaimer in 
+     the documentation and/or other materials provided with the distribution.
+
+  3. The names of the authors may not be used to endorse or promote products
+     derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL JCRAFT,
+INC. OR ANY CONTRIBUTORS TO THIS SOFTWARE BE LIABLE FOR ANY DIRECT, INDIRECT,
+INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.jcraft.jsch;
+
+/**
+ * A cipher that authenticates the packets it encrypts, in the way of
+ * the "@openssh.com" AEAD modes.  When one is negotiated no separate MAC
+ * is used; the tag follows the encrypted packet instead, and the packet
+ * length field is covered by the tag rather than by the padding.
+ */
+public interface AEADCipher extends Cipher{
+  /**
+   * Returns the length of the authentication tag appended to each packet.
+   */
+  int getTagSize();
+
+  /**
+   * Returns the block size the packet, not counting its length field,
+   * has to be padded to.
+   */
+  int getPaddingSize();
+
+  /**
+   * Returns the length of the packet whose first 4 bytes are at buf[s].
+   * The buffer must be left untouched.
+   */
+  int getPacketLength(int seq, byte[] buf, int s) throws Exception;
+
+  /**
+   * Encrypts in place the len bytes of the packet at buf[s], length field
+   * included, and writes the tag right after them.
+   */
+  void seal(int seq, byte[] buf, int s, int len) throws Exception;
+
+  /**
+   * Checks the tag following the len bytes of the packet at buf[s] and
+   * decrypts the packet, length field included, in place.  Returns false
+   * if the packet has not been authenticated, in which case its contents
+   * are undefined.
+   */
+  boolean open(int seq, byte[] buf, int s, int len) throws Exception;
+}
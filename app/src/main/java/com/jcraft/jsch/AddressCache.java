@@ -0,0 +1,149 @@
+/* -*-mode:java; c-basic-offset:2; indent-tabs-mode:nil -*- */
+/*
+Copyright (c) 2002-2014 ymnk, JCraft,Inc. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+  1. Redistributions of source code must retain the above copyright notice,
+     this list of conditions and the following disclaimer.
+
+  2. Redistributions in binary form must reproduce the above copyright 
+     notice, this list of conditions and the following disclaimer in 
+     the documentation and/or other materials provided with the distribution.
+
+  3. The names of the authors may not be used to endorse or promote products
+     derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL JCRAFT,
+INC. OR ANY CONTRIBUTORS TO THIS SOFTWARE BE LIABLE FOR ANY DIRECT, INDIRECT,
+INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.jcraft.jsch;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Hashtable;
+
+/**
+ * Name lookups shared by all sessions, so that reconnecting or opening
+ * several sessions to the same host only pays for one resolution.
+ * Java does not expose the TTL of a DNS answer, so entries simply
+ * expire after "dns_cache_ttl" seconds; 0 disables the cache.
+ * Failed lookups are not cached.
+ */
+final class AddressCache{
+  private static final int MAX_ENTRIES=64;
+
+  private static final Hashtable cache=new Hashtable();
+
+  private static class Entry{
+    final InetAddress[] addrs;
+    final long expires;
+    Entry(InetAddress[] addrs, long expires){
+      this.addrs=addrs;
+      this.expires=expires;
+    }
+  }
+
+  private AddressCache(){ }
+
+  /*
+   * Returns all addresses of <code>host</code>, in the order the system
+   * resolver prefers them.  If <code>timeout</code> is not zero, gives
+   * up after that many milliseconds.
+   */
+  static InetAddress[] lookup(String host, int timeout) throws Exception{
+    long ttl=getTTL();
+    long now=System.currentTimeMillis();
+    if(ttl>0){
+      Entry e=(Entry)cache.get(host);
+      if(e!=null){
+        if(e.expires>now)
+          return e.addrs;
+        cache.remove(host);
+      }
+    }
+
+    InetAddress[] addrs=resolve(host, timeout);
+
+    if(ttl>0){
+      synchronized(cache){
+        if(cache.size()>=MAX_ENTRIES)
+          purge(now);
+        cache.put(host, new Entry(addrs, now+ttl));
+      }
+    }
+    return addrs;
+  }
+
+  /*
+   * Drops <code>host</code>, e.g. after none of its addresses answered.
+   */
+  static void forget(String host){
+    cache.remove(host);
+  }
+
+  private static InetAddress[] resolve(String host, int timeout) throws Exception{
+    if(timeout==0)
+      return InetAddress.getAllByName(host);
+
+    // InetAddress has no timeout of its own
+    final String _host=host;
+    final Object[] result=new Object[1];
+    Thread tmp=new Thread(new Runnable(){
+        public void run(){
+          Object r;
+          try{ r=InetAddress.getAllByName(_host); }
+          catch(Exception e){ r=e; }
+          synchronized(result){
+            result[0]=r;
+            result.notifyAll();
+          }
+        }
+      });
+    tmp.setName("Resolving "+host);
+    tmp.setDaemon(true);
+    tmp.start();
+    long deadline=System.currentTimeMillis()+timeout;
+    synchronized(result){
+      long t;
+      while(result[0]==null &&
+            (t=deadline-System.currentTimeMillis())>0){
+        result.wait(t);
+      }
+    }
+    if(result[0] instanceof InetAddress[])
+      return (InetAddress[])result[0];
+    if(result[0] instanceof Exception)
+      throw (Exception)result[0];
+    throw new UnknownHostException("timeout: "+host);
+  }
+
+  private static void purge(long now){
+    Object[] keys=cache.keySet().toArray();
+    for(int i=0; i<keys.length; i++){
+      if(((Entry)cache.get(keys[i])).expires<=now)
+        cache.remove(keys[i]);
+    }
+    if(cache.size()>=MAX_ENTRIES)
+      cache.clear();
+  }
+
+  private static long getTTL(){
+    try{
+      return Long.parseLong(JSch.getConfig("dns_cache_ttl"))*1000;
+    }
+    catch(Exception e){
+      return 0;
+    }
+  }
+}
@@ -0,0 +1,119 @@
+/* -*-mode:java; c-basic-offset:2; indent-tabs-mode:nil -*- */
+/*
+Copyright (c) 2002-2014 ymnk, JCraft,Inc. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+  1. Redistributions of source code must retain the above copyright notice,
+     this list of conditions and the following disclaimer.
+
+  2. Redistributions in binary form must reproduce the above copyright 
+     notice, this list of conditions and the following disclaimer in 
+     the documentation and/or other materials provided with the distribution.
+
+  3. The names of the authors may not be used to endorse or promote products
+     derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL JCRAFT,
+INC. OR ANY CONTRIBUTORS TO THIS SOFTWARE BE LIABLE FOR ANY DIRECT, INDIRECT,
+INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.jcraft.jsch;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Coalesces encoded packets into large writes on the transport stream.
+ * Packets are appended to an in-memory buffer and only handed to the
+ * underlying stream when the caller asks for a flush, when the buffer
+ * is full, or when the oldest buffered byte has waited longer than the
+ * latency bound.
+ */
+class BatchedOutputStream extends OutputStream{
+  private OutputStream out;
+  private byte[] buf;
+  private int count=0;
+  private long first_byte_time=0L;  // System.nanoTime() of oldest buffered byte
+  private long max_latency;         // in nanoseconds
+
+  private long writes=0;
+  private long flushes=0;
+
+  BatchedOutputStream(OutputStream out, int size, int max_latency_ms){
+    this.out=out;
+    this.buf=new byte[size];
+    this.max_latency=max_latency_ms*1000000L;
+  }
+
+  public synchronized void write(int b) throws IOException{
+    if(count>=buf.length){
+      flushBuffer();
+    }
+    if(count==0){
+      first_byte_time=System.nanoTime();
+    }
+    buf[count++]=(byte)b;
+  }
+
+  public synchronized void write(byte[] b, int off, int len) throws IOException{
+    if(len>=buf.length){
+      // larger than the whole buffer, nothing to gain by copying it
+      flushBuffer();
+      out.write(b, off, len);
+      writes++;
+      return;
+    }
+    if(len>buf.length-count){
+      flushBuffer();
+    }
+    if(count==0){
+      first_byte_time=System.nanoTime();
+    }
+    System.arraycopy(b, off, buf, count, len);
+    count+=len;
+  }
+
+  /**
+   * Returns <code>true</code> if buffered data has been held back
+   * longer than the latency bound.
+   */
+  synchronized boolean isStale(){
+    return count>0 && (System.nanoTime()-first_byte_time)>=max_latency;
+  }
+
+  public synchronized void flush() throws IOException{
+    flushBuffer();
+    out.flush();
+    flushes++;
+  }
+
+  public void close() throws IOException{
+    try{
+      flush();
+    }
+    catch(IOException e){
+    }
+    out.close();
+  }
+
+  private void flushBuffer() throws IOException{
+    if(count>0){
+      out.write(buf, 0, count);
+      writes++;
+      count=0;
+    }
+  }
+
+  synchronized long getWriteCount(){ return writes; }
+  synchronized long getFlushCount(){ return flushes; }
+}
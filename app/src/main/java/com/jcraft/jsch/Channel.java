@@ -29,8 +29,6 @@ EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 
 package com.jcraft.jsch;
 
-import java.io.PipedInputStream;
-import java.io.PipedOutputStream;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.IOException;
@@ -48,7 +46,7 @@ public abstract class Channel implements Runnable{
   static final int SSH_OPEN_RESOURCE_SHORTAGE=              4;
 
   static int index=0; 
-  private static java.util.Vector pool=new java.util.Vector();
+  private static final Object index_lock=new Object();
   static Channel getChannel(String type){
     if(type.equals("session")){
       return new ChannelSession();
@@ -80,17 +78,12 @@ public abstract class Channel implements Runnable{
     return null;
   }
   static Channel getChannel(int id, Session session){
-    synchronized(pool){
-      for(int i=0; i<pool.size(); i++){
-        Channel c=(Channel)(pool.elementAt(i));
-        if(c.id==id && c.session==session) return c;
-      }
-    }
-    return null;
+    return session.channels.get(id);
   }
   static void del(Channel c){
-    synchronized(pool){
-      pool.removeElement(c);
+    Session _session=c.session;
+    if(_session!=null){
+      _session.channels.remove(c);
     }
   }
 
@@ -124,9 +117,8 @@ public abstract class Channel implements Runnable{
   int notifyme=0; 
 
   Channel(){
-    synchronized(pool){
+    synchronized(index_lock){
       id=index++;
-      pool.addElement(this);
     }
   }
   synchronized void setRecipient(int foo){
@@ -198,13 +190,12 @@ public abstract class Channel implements Runnable{
         Integer.parseInt(getSession().getConfig("max_input_buffer_size"));
     }
     catch(Exception e){}
-    PipedInputStream in =
-      new MyPipedInputStream(
-                             32*1024,  // this value should be customizable.
-                             max_input_buffer_size
-                             );
-    boolean resizable = 32*1024<max_input_buffer_size;
-    io.setOutputStream(new PassiveOutputStream(in, resizable), false);
+    RingInputStream in =
+      new RingInputStream(
+                          32*1024,  // this value should be customizable.
+                          max_input_buffer_size
+                          );
+    io.setOutputStream(in.getOutputStream(), false);
     return in;
   }
   public InputStream getExtInputStream() throws IOException {
@@ -214,13 +205,12 @@ public abstract class Channel implements Runnable{
         Integer.parseInt(getSession().getConfig("max_input_buffer_size"));
     }
     catch(Exception e){}
-    PipedInputStream in =
-      new MyPipedInputStream(
-                             32*1024,  // this value should be customizable.
-                             max_input_buffer_size
-                             );
-    boolean resizable = 32*1024<max_input_buffer_size;
-    io.setExtOutputStream(new PassiveOutputStream(in, resizable), false);
+    RingInputStream in =
+      new RingInputStream(
+                          32*1024,  // this value should be customizable.
+                          max_input_buffer_size
+                          );
+    io.setExtOutputStream(in.getOutputStream(), false);
     return in;
   }
   public OutputStream getOutputStream() throws IOException {
@@ -325,98 +315,34 @@ public abstract class Channel implements Runnable{
     return out;
   }
 
-  class MyPipedInputStream extends PipedInputStream{
-    private int BUFFER_SIZE = 1024;
-    private int max_buffer_size = BUFFER_SIZE;
-    MyPipedInputStream() throws IOException{ super(); }
-    MyPipedInputStream(int size) throws IOException{
-      super();
-      buffer=new byte[size];
-      BUFFER_SIZE = size;
-      max_buffer_size = size;
-    }
-    MyPipedInputStream(int size, int max_buffer_size) throws IOException{
-      this(size);
-      this.max_buffer_size = max_buffer_size;
-    }
-    MyPipedInputStream(PipedOutputStream out) throws IOException{ super(out); }
-    MyPipedInputStream(PipedOutputStream out, int size) throws IOException{
-      super(out);
-      buffer=new byte[size];
-      BUFFER_SIZE=size;
-    }
-
-    /*
-     * TODO: We should have our own Piped[I/O]Stream implementation.
-     * Before accepting data, JDK's PipedInputStream will check the existence of
-     * reader thread, and if it is not alive, the stream will be closed.
-     * That behavior may cause the problem if multiple threads make access to it.
-     */
-    public synchronized void updateReadSide() throws IOException {
-      if(available() != 0){ // not empty
-        return;
-      }
-      in = 0;
-      out = 0;
-      buffer[in++] = 0;
-      read();
-    }
-
-    private int freeSpace(){
-      int size = 0;
-      if(out < in) {
-        size = buffer.length-in;
-      }
-      else if(in < out){
-        if(in == -1) size = buffer.length;
-        else size = out - in;
-      }
-      return size;
-    } 
-    synchronized void checkSpace(int len) throws IOException {
-      int size = freeSpace();
-      if(size<len){
-        int datasize=buffer.length-size;
-        int foo = buffer.length;
-        while((foo - datasize) < len){
-          foo*=2;
-        }
+  void setLocalWindowSizeMax(int foo){ this.lwsize_max=foo; }
 
-        if(foo > max_buffer_size){
-          foo = max_buffer_size;
-        }
-        if((foo - datasize) < len) return;
+  private long window_time=0L;   // System.nanoTime() of the last adjustment
+  private long drain_rate=0L;    // smoothed, in bytes per second
 
-        byte[] tmp = new byte[foo];
-        if(out < in) {
-          System.arraycopy(buffer, 0, tmp, 0, buffer.length);
-        }
-        else if(in < out){
-          if(in == -1) {
-          }
-          else {
-            System.arraycopy(buffer, 0, tmp, 0, in);
-            System.arraycopy(buffer, out, 
-                             tmp, tmp.length-(buffer.length-out),
-                             (buffer.length-out));
-            out = tmp.length-(buffer.length-out);
-          }
-        }
-        else if(in == out){
-          System.arraycopy(buffer, 0, tmp, 0, buffer.length);
-          in=buffer.length;
-        }
-        buffer=tmp;
-      }
-      else if(buffer.length == size && size > BUFFER_SIZE) { 
-        int  i = size/2;
-        if(i<BUFFER_SIZE) i = BUFFER_SIZE;
-        byte[] tmp = new byte[i];
-        buffer=tmp;
-      }
+  /*
+   * Invoked by the session, just before it tops up the local window,
+   * with the number of bytes consumed since the previous adjustment.
+   * If the data is drained fast enough to use more than half of the
+   * window within a round trip, the peer is being held back by the
+   * window, so it is grown, at most doubling each time, up to ceiling.
+   */
+  void autotuneLocalWindow(int consumed, long rtt, int ceiling){
+    long now=System.nanoTime();
+    if(window_time!=0L && now>window_time){
+      long rate=consumed*1000000000L/(now-window_time);
+      drain_rate=(drain_rate==0L) ? rate : (drain_rate*7+rate)/8;
+    }
+    window_time=now;
+    if(rtt<=0L || lwsize_max>=ceiling){
+      return;
+    }
+    long target=drain_rate*rtt/1000000000L*2;
+    if(target>lwsize_max){
+      target=Math.min(target, (long)lwsize_max*2);
+      lwsize_max=(int)Math.min(target, (long)ceiling);
     }
   }
-  void setLocalWindowSizeMax(int foo){ this.lwsize_max=foo; }
   void setLocalWindowSize(int foo){ this.lwsize=foo; }
   void setLocalPacketSize(int foo){ this.lmpsize=foo; }
   synchronized void setRemoteWindowSize(long foo){ this.rwsize=foo; }
@@ -425,6 +351,45 @@ public abstract class Channel implements Runnable{
     if(notifyme>0)
       notifyAll();
   }
+
+  private volatile long stall_time=0L;  // in nanoseconds
+
+  // data payload counters, for Session.getMetrics()
+  volatile long rx_bytes=0L;
+  volatile long tx_bytes=0L;
+  final long open_time=System.currentTimeMillis();
+  volatile long open_time_nanos=0L;  // when CHANNEL_OPEN was sent, for the rtt
+
+  /*
+   * Must be invoked with this channel locked and no remote window left.
+   * Returns once the window has been enlarged or the channel is closing.
+   */
+  void waitForRemoteWindow(){
+    long start=System.nanoTime();
+    try{
+      notifyme++;
+      wait();
+    }
+    catch(java.lang.InterruptedException e){
+    }
+    finally{
+      notifyme--;
+      addStallTime(System.nanoTime()-start);
+    }
+  }
+
+  synchronized void addStallTime(long nanos){
+    stall_time+=nanos;
+  }
+
+  /**
+   * Returns the total time, in milliseconds, that writers to this
+   * channel have spent blocked waiting for the remote window to open
+   * or for a key re-exchange to finish.
+   */
+  public long getStallTime(){
+    return stall_time/1000000L;
+  }
   void setRemotePacketSize(int foo){ this.rmpsize=foo; }
 
   public void run(){
@@ -519,6 +484,9 @@ public abstract class Channel implements Runnable{
     if(close)return;
     close=true;
     eof_local=eof_remote=true;
+    synchronized(this){
+      notifyAll();  // writers waiting for the remote window
+    }
 
     int i = getRecipient();
     if(i == -1) return;
@@ -541,22 +509,8 @@ public abstract class Channel implements Runnable{
     return close;
   }
   static void disconnect(Session session){
-    Channel[] channels=null;
-    int count=0;
-    synchronized(pool){
-      channels=new Channel[pool.size()];
-      for(int i=0; i<pool.size(); i++){
-	try{
-	  Channel c=((Channel)(pool.elementAt(i)));
-	  if(c.session==session){
-	    channels[count++]=c;
-	  }
-	}
-	catch(Exception e){
-	}
-      } 
-    }
-    for(int i=0; i<count; i++){
+    Channel[] channels=session.channels.toArray();
+    for(int i=0; i<channels.length; i++){
       channels[i].disconnect();
     }
   }
@@ -572,6 +526,7 @@ public abstract class Channel implements Runnable{
           return;
         }
         connected=false;
+        notifyAll();
       }
 
       close();
@@ -621,46 +576,6 @@ public abstract class Channel implements Runnable{
   }
 */
 
-  class PassiveInputStream extends MyPipedInputStream{
-    PipedOutputStream out;
-    PassiveInputStream(PipedOutputStream out, int size) throws IOException{
-      super(out, size);
-      this.out=out;
-    }
-    PassiveInputStream(PipedOutputStream out) throws IOException{
-      super(out);
-      this.out=out;
-    }
-    public void close() throws IOException{
-      if(out!=null){
-        this.out.close();
-      }
-      out=null;
-    }
-  }
-  class PassiveOutputStream extends PipedOutputStream{
-    private MyPipedInputStream _sink=null;
-    PassiveOutputStream(PipedInputStream in,
-                        boolean resizable_buffer) throws IOException{
-      super(in);
-      if(resizable_buffer && (in instanceof MyPipedInputStream)) {
-        this._sink=(MyPipedInputStream)in;
-      }
-    }
-    public void write(int b) throws IOException {
-      if(_sink != null) {
-        _sink.checkSpace(1);
-      }
-      super.write(b);
-    }
-    public void write(byte[] b, int off, int len) throws IOException {
-      if(_sink != null) {
-        _sink.checkSpace(len);
-      }
-      super.write(b, off, len); 
-    }
-  }
-
   void setExitStatus(int status){ exitstatus=status; }
   public int getExitStatus(){ return exitstatus; }
 
@@ -729,6 +644,7 @@ public abstract class Channel implements Runnable{
     }
 
     Packet packet = genChannelOpenPacket();
+    open_time_nanos=System.nanoTime();
     _session.write(packet);
 
     int retry=2000;
@@ -767,6 +683,10 @@ public abstract class Channel implements Runnable{
     if(this.open_confirmation==false){  // SSH_MSG_CHANNEL_OPEN_FAILURE
       throw new JSchException("channel is not opened.");
     }
+    ConnectTrace trace=_session.getConnectTrace();
+    if(trace!=null){
+      trace.channelOpened(System.nanoTime()-open_time_nanos);
+    }
     connected=true;
   }
 }
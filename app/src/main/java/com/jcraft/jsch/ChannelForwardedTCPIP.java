@@ -63,12 +63,10 @@ public class ChannelForwardedTCPIP extends Channel{
         Class c=Class.forName(_config.target);
         daemon=(ForwardedTCPIPDaemon)c.newInstance();
 
-        PipedOutputStream out=new PipedOutputStream();
-        io.setInputStream(new PassiveInputStream(out
-                                                 , 32*1024
-                                                 ), false);
+        RingInputStream in=new RingInputStream(32*1024, 32*1024);
+        io.setInputStream(in, false);
 
-        daemon.setChannel(this, getInputStream(), out);
+        daemon.setChannel(this, getInputStream(), in.getOutputStream());
         daemon.setArg(_config.arg);
         new Thread(daemon).start();
       }
@@ -154,6 +154,13 @@ public class ChannelSftp extends ChannelSession{
   // private boolean extension_fstatvfs = false;
   private boolean extension_hardlink = false;
 
+  // requests sent by the ...Async methods, by request id
+  private java.util.Hashtable async=new java.util.Hashtable();
+
+  // from limits@openssh.com, 0 if the server did not tell
+  private int max_read_length = 0;
+  private int max_write_length = 0;
+
 /*
 10. Changes from previous protocol versions
   The SSH File Transfer Protocol has changed over time, before it's
@@ -183,11 +190,15 @@ public class ChannelSftp extends ChannelSession{
   private boolean fEncoding_is_utf8=true;
 
   private RequestQueue rq = new RequestQueue(16);
+  private int bulk_writes = 64;
+  private int max_read_ahead = 8*1024*1024;
 
   /**
    * Specify how many requests may be sent at any one time.
-   * Increasing this value may slightly improve file transfer speed but will
-   * increase memory usage.  The default is 16 requests.
+   * Downloads start out with up to this many read requests and then
+   * keep doubling it for as long as that makes them faster, up to
+   * the limit set by <code>setMaxReadAhead</code>.
+   * The default is 16 requests.
    *
    * @param bulk_requests how many requests may be outstanding at any one time.
    */
@@ -209,6 +220,56 @@ public class ChannelSftp extends ChannelSession{
     return rq.size();
   }
 
+  /**
+   * Specify how many bytes a download may request ahead of what it has
+   * received.  This caps the number of read requests the download may
+   * grow to.  The default is 8MB.
+   *
+   * @param max_read_ahead how many bytes may be requested ahead.
+   */
+  public void setMaxReadAhead(int max_read_ahead) throws JSchException {
+    if(max_read_ahead>0)
+      this.max_read_ahead=max_read_ahead;
+    else
+      throw new JSchException("setMaxReadAhead: "+
+                              max_read_ahead+" must be greater than 0.");
+  }
+
+  /**
+   * This method will return how many bytes a download may request
+   * ahead of what it has received.
+   *
+   * @return how many bytes may be requested ahead.
+   */
+  public int getMaxReadAhead(){
+    return max_read_ahead;
+  }
+
+  /**
+   * Specify how many SSH_FXP_WRITE requests an upload stream returned by
+   * <code>put(String dst, ...)</code> may leave unacknowledged.  Each
+   * holds up to one packet of data; the default is 64 requests.
+   *
+   * @param bulk_writes how many writes may be outstanding at any one time.
+   */
+  public void setBulkWrites(int bulk_writes) throws JSchException {
+    if(bulk_writes>0)
+      this.bulk_writes=bulk_writes;
+    else
+      throw new JSchException("setBulkWrites: "+
+                              bulk_writes+" must be greater than 0.");
+  }
+
+  /**
+   * This method will return how many SSH_FXP_WRITE requests an upload
+   * stream may leave unacknowledged.
+   *
+   * @return how many writes may be outstanding at any one time.
+   */
+  public int getBulkWrites(){
+    return bulk_writes;
+  }
+
   public ChannelSftp(){
     super();
     setLocalWindowSizeMax(LOCAL_WINDOW_SIZE_MAX);
@@ -222,9 +283,8 @@ public class ChannelSftp extends ChannelSession{
   public void start() throws JSchException{
     try{
 
-      PipedOutputStream pos=new PipedOutputStream();
-      io.setOutputStream(pos);
-      PipedInputStream pis=new MyPipedInputStream(pos, rmpsize);
+      RingInputStream pis=new RingInputStream(rmpsize, rmpsize);
+      io.setOutputStream(pis.getOutputStream());
       io.setInputStream(pis);
 
       io_in=io.in;
@@ -306,6 +366,11 @@ public class ChannelSftp extends ChannelSession{
         extension_hardlink = true;
       } 
 
+      if(extensions.get("limits@openssh.com")!=null &&
+         extensions.get("limits@openssh.com").equals("1")){
+        readLimits();
+      }
+
       lcwd=new File(".").getCanonicalPath();
     }
     catch(Exception e){
@@ -334,8 +399,6 @@ public class ChannelSftp extends ChannelSession{
 
   public void cd(String path) throws SftpException{
     try{
-      ((MyPipedInputStream)io_in).updateReadSide();
-
       path=remoteAbsolutePath(path);
       path=isUnique(path);
 
@@ -386,8 +449,6 @@ public class ChannelSftp extends ChannelSession{
 		  SftpProgressMonitor monitor, int mode) throws SftpException{
 
     try{
-      ((MyPipedInputStream)io_in).updateReadSide();
-
       src=localAbsolutePath(src);
       dst=remoteAbsolutePath(dst);
 
@@ -512,8 +573,6 @@ public class ChannelSftp extends ChannelSession{
   public void put(InputStream src, String dst, 
 		  SftpProgressMonitor monitor, int mode) throws SftpException{
     try{
-      ((MyPipedInputStream)io_in).updateReadSide();
-
       dst=remoteAbsolutePath(dst);
 
       Vector v=glob_remote(dst);
@@ -556,8 +615,6 @@ public class ChannelSftp extends ChannelSession{
   public void _put(InputStream src, String dst, 
                    SftpProgressMonitor monitor, int mode) throws SftpException{
     try{
-      ((MyPipedInputStream)io_in).updateReadSide();
-
       byte[] dstb=Util.str2byte(dst, fEncoding);
       long skip=0;
       if(mode==RESUME || mode==APPEND){
@@ -621,7 +678,7 @@ public class ChannelSftp extends ChannelSession{
       else{
         data=obuf.buffer;
         _s=5+13+21+handle.length;
-        _datalen=obuf.buffer.length-_s-Session.buffer_margin;
+        _datalen=writeLength(handle);
       }
 
       int bulk_requests = rq.size();
@@ -713,8 +770,6 @@ public class ChannelSftp extends ChannelSession{
    */
   public OutputStream put(String dst, final SftpProgressMonitor monitor, final int mode, long offset) throws SftpException{
     try{
-      ((MyPipedInputStream)io_in).updateReadSide();
-
       dst=remoteAbsolutePath(dst);
       dst=isUnique(dst);
 
@@ -752,120 +807,188 @@ public class ChannelSftp extends ChannelSession{
         int i=buf.getInt();
         throwStatusError(buf, i);
       }
-      final byte[] handle=buf.getString();         // handle
+      byte[] handle=buf.getString();         // handle
 
       if(mode==RESUME || mode==APPEND){
 	offset+=skip;
       }
 
-      final long[] _offset=new long[1];
-      _offset[0]=offset;
-      OutputStream out = new OutputStream(){
-        private boolean init=true;
-        private boolean isClosed=false;
-        private int[] ackid=new int[1];
-        private int startid=0;
-        private int _ackid=0;
-        private int ackcount=0;
-        private int writecount=0;
-        private Header header=new Header();          
-
-        public void write(byte[] d) throws java.io.IOException{
-          write(d, 0, d.length);
-        }
-
-        public void write(byte[] d, int s, int len) throws java.io.IOException{
-          if(init){
-            startid=seq;
-            _ackid=seq;
-            init=false;
-          }
-
-          if(isClosed){
-            throw new IOException("stream already closed");
-          }
+      return new UploadStream(handle, offset, monitor);
+    }
+    catch(Exception e){
+      if(e instanceof SftpException) throw (SftpException)e;
+      if(e instanceof Throwable)
+        throw new SftpException(SSH_FX_FAILURE, "", (Throwable)e);
+      throw new SftpException(SSH_FX_FAILURE, "");
+    }
+  }
 
-          try{
-            int _len=len;
-            while(_len>0){
-              int sent=sendWRITE(handle, _offset[0], d, s, _len);
-              writecount++;
-              _offset[0]+=sent;
-              s+=sent;
-              _len-=sent;
-              if((seq-1)==startid ||
-                 io_in.available()>=1024){
-                while(io_in.available()>0){
-                  if(checkStatus(ackid, header)){
-                    _ackid=ackid[0];
-                    if(startid>_ackid || _ackid>seq-1){
-                      throw new SftpException(SSH_FX_FAILURE, "");
-                    }
-                    ackcount++;
-                  }
-                  else{
-                    break;
-                  }
-                }
-              }
-            }
-    	    if(monitor!=null && !monitor.count(len)){
-              close();
-              throw new IOException("canceled");
-	    }
-          }
-          catch(IOException e){ throw e; }
-          catch(Exception e){ throw new IOException(e.toString());  }
+  /**
+   * The stream returned by put(String, SftpProgressMonitor, int, long).
+   * Data is gathered into packet sized SSH_FXP_WRITE requests, which are
+   * sent without waiting for their replies.  Replies that have already
+   * arrived are taken in before each request, so the caller only waits
+   * when <code>bulk_writes</code> requests are outstanding or on flush().
+   * The first failed request is reported, with its offset, by the next
+   * write(), flush() or close().
+   */
+  private class UploadStream extends OutputStream{
+    private byte[] handle;
+    private SftpProgressMonitor monitor;
+    private long offset;              // where the next request writes
+    private byte[] chunk;             // data not yet sent
+    private int chunk_len=0;
+
+    private int[] ids;                // requests in flight
+    private long[] offsets;
+    private int inflight=0;
+
+    private int[] ackid=new int[1];
+    private Header header=new Header();
+    private SftpException error=null;
+    private boolean isClosed=false;
+    private byte[] _data=new byte[1];
+
+    UploadStream(byte[] handle, long offset, SftpProgressMonitor monitor){
+      this.handle=handle;
+      this.offset=offset;
+      this.monitor=monitor;
+      chunk=new byte[writeLength(handle)];
+      ids=new int[bulk_writes];
+      offsets=new long[bulk_writes];
+    }
+
+    public void write(int foo) throws IOException{
+      _data[0]=(byte)foo;
+      write(_data, 0, 1);
+    }
+
+    public void write(byte[] d, int s, int len) throws IOException{
+      if(isClosed){
+        throw new IOException("stream already closed");
+      }
+      check();
+      int _len=len;
+      while(_len>0){
+        if(chunk_len==0 && _len>=chunk.length){
+          // a whole request's worth, send it without copying
+          send(d, s, chunk.length);
+          s+=chunk.length;
+          _len-=chunk.length;
+          continue;
         }
-
-        byte[] _data=new byte[1];
-        public void write(int foo) throws java.io.IOException{
-          _data[0]=(byte)foo;
-          write(_data, 0, 1);
+        int n=Math.min(_len, chunk.length-chunk_len);
+        System.arraycopy(d, s, chunk, chunk_len, n);
+        chunk_len+=n;
+        s+=n;
+        _len-=n;
+        if(chunk_len==chunk.length){
+          send(chunk, 0, chunk_len);
+          chunk_len=0;
         }
+      }
+      if(monitor!=null && !monitor.count(len)){
+        close();
+        throw new IOException("canceled");
+      }
+    }
 
-        public void flush() throws java.io.IOException{
-
-          if(isClosed){
-            throw new IOException("stream already closed");
-          }
+    public void flush() throws IOException{
+      if(isClosed){
+        throw new IOException("stream already closed");
+      }
+      check();
+      if(chunk_len>0){
+        send(chunk, 0, chunk_len);
+        chunk_len=0;
+      }
+      while(inflight>0){
+        ack();
+      }
+      check();
+    }
 
-          if(!init){
-            try{
-              while(writecount>ackcount){
-                if(!checkStatus(null, header)){
-                  break;
-                }
-                ackcount++;
-              }
-            }
-            catch(SftpException e){
-              throw new IOException(e.toString());
-            }
-          }
+    public void close() throws IOException{
+      if(isClosed){
+        return;
+      }
+      try{
+        if(error==null && chunk_len>0){
+          send(chunk, 0, chunk_len);
         }
+        chunk_len=0;
+        while(inflight>0){
+          ack();
+        }
+        if(monitor!=null)monitor.end();
+        try{ _sendCLOSE(handle, header); }
+        catch(IOException e){ throw e; }
+        catch(Exception e){
+          throw new IOException(e.toString());
+        }
+      }
+      finally{
+        isClosed=true;
+      }
+      check();
+    }
 
-        public void close() throws java.io.IOException{
-          if(isClosed){
-            return;
-          }
-          flush();
-          if(monitor!=null)monitor.end();
-          try{ _sendCLOSE(handle, header); }
-          catch(IOException e){ throw e; }
-          catch(Exception e){
-            throw new IOException(e.toString());
+    private void send(byte[] d, int s, int len) throws IOException{
+      try{
+        while(inflight>0 && io_in.available()>0){
+          ack();
+        }
+        while(len>0){
+          while(inflight>=ids.length){
+            ack();
           }
-          isClosed=true;
+          int id=seq;
+          int sent=sendWRITE(handle, offset, d, s, len);
+          ids[inflight]=id;
+          offsets[inflight]=offset;
+          inflight++;
+          offset+=sent;
+          s+=sent;
+          len-=sent;
         }
-      };
-      return out;
+      }
+      catch(IOException e){ throw e; }
+      catch(Exception e){ throw new IOException(e.toString()); }
     }
-    catch(Exception e){
-      if(e instanceof SftpException) throw (SftpException)e;
-      if(e instanceof Throwable)
-        throw new SftpException(SSH_FX_FAILURE, "", (Throwable)e);
-      throw new SftpException(SSH_FX_FAILURE, "");
+
+    /*
+     * Takes in one reply and retires the request it answers.
+     */
+    private void ack() throws IOException{
+      SftpException e=null;
+      try{
+        checkStatus(ackid, header);
+      }
+      catch(SftpException ee){
+        e=ee;
+      }
+      int i=0;
+      while(i<inflight && ids[i]!=ackid[0]) i++;
+      if(i==inflight){
+        throw new IOException("ack error: unexpected id="+ackid[0]);
+      }
+      long off=offsets[i];
+      inflight--;
+      ids[i]=ids[inflight];
+      offsets[i]=offsets[inflight];
+      if(e!=null && error==null){
+        error=new SftpException(e.id,
+                                "write at offset "+off+": "+e.getMessage(),
+                                e);
+      }
+    }
+
+    private void check() throws IOException{
+      if(error!=null){
+        IOException e=new IOException(error.toString());
+        e.initCause(error);
+        throw e;
+      }
     }
   }
 
@@ -883,8 +1006,6 @@ public class ChannelSftp extends ChannelSession{
     boolean _dstExist = false;
     String _dst=null;
     try{
-      ((MyPipedInputStream)io_in).updateReadSide();
-
       src=remoteAbsolutePath(src);
       dst=localAbsolutePath(dst);
 
@@ -991,8 +1112,6 @@ public class ChannelSftp extends ChannelSession{
 		   SftpProgressMonitor monitor, int mode, long skip) throws SftpException{
 //System.err.println("get: "+src+", "+dst);
     try{
-      ((MyPipedInputStream)io_in).updateReadSide();
-
       src=remoteAbsolutePath(src);
       src=isUnique(src);
 
@@ -1044,17 +1163,16 @@ public class ChannelSftp extends ChannelSession{
 	offset+=skip;
       }
 
-      int request_max=1;
-      rq.init();
       long request_offset=offset;
 
-      int request_len = buf.buffer.length-13;
-      if(server_version==0){ request_len=1024; }
+      int request_len = readLength();
+
+      rq.init(request_len);
 
       loop:
       while(true){
 
-        while(rq.count() < request_max){
+        while(rq.count() < rq.depth()){
           sendREAD(handle, request_offset, request_len, rq);
           request_offset += request_len;
         }
@@ -1142,9 +1260,7 @@ public class ChannelSftp extends ChannelSession{
           request_offset=rr.offset+rr.length;
         }
 
-        if(request_max < rq.size()){
-          request_max++;
-        }
+        rq.received(length_of_data);
       }
       dst.flush();
 
@@ -1178,7 +1294,26 @@ public class ChannelSftp extends ChannelSession{
 
     Request[] rrq=null;
     int head, count;
+    int size;
+
+    /*
+     * How many requests are kept outstanding.  A transfer starts with
+     * one and adds one per reply until it reaches size, as before, or
+     * max_depth if that is smaller because the requests are large.
+     * From then on the depth is doubled after every round, a round
+     * being as many replies as there are requests outstanding, for as
+     * long as that makes the transfer at least an eighth faster, and
+     * is left alone after the second round that does not.  The depth
+     * never exceeds max_read_ahead bytes of requests.
+     */
+    int depth, max_depth;
+    int round_replies;
+    long round_start, round_bytes;
+    long best_rate;
+    int flat_rounds;
+
     RequestQueue(int size){
+      this.size=size;
       rrq = new Request[size];
       for(int i=0; i<rrq.length; i++){
         rrq[i]=new Request();
@@ -1190,6 +1325,68 @@ public class ChannelSftp extends ChannelSession{
       head=count=0;
     }
 
+    void init(int request_len){
+      init();
+      depth=1;
+      max_depth=Math.max(1, max_read_ahead/request_len);
+      round_replies=0;
+      round_start=0L;
+      round_bytes=0L;
+      best_rate=0L;
+      flat_rounds=0;
+    }
+
+    int depth(){
+      return depth;
+    }
+
+    void received(int length){
+      if(depth<Math.min(size, max_depth)){
+        depth++;
+        return;
+      }
+      if(flat_rounds>=2 || depth>=max_depth){
+        return;
+      }
+      if(round_start==0L){
+        round_start=System.nanoTime();
+        return;
+      }
+      round_bytes+=length;
+      if(++round_replies<depth){
+        return;
+      }
+      long now=System.nanoTime();
+      long rate=round_bytes*1000000000L/Math.max(now-round_start, 1L);
+      if(rate>best_rate+best_rate/8){
+        best_rate=rate;
+        flat_rounds=0;
+        depth=Math.min(depth*2, max_depth);
+        grow(depth);
+      }
+      else{
+        flat_rounds++;
+      }
+      round_replies=0;
+      round_bytes=0L;
+      round_start=now;
+    }
+
+    private void grow(int n){
+      if(n<=rrq.length) return;
+      Request[] tmp = new Request[n];
+      for(int i=0; i<rrq.length; i++){
+        int j = head + i;
+        if(j>=rrq.length) j -= rrq.length;
+        tmp[i] = rrq[j];
+      }
+      for(int i=rrq.length; i<n; i++){
+        tmp[i]=new Request();
+      }
+      rrq = tmp;
+      head = 0;
+    }
+
     void add(int id, long offset, int length){
       if(count == 0) head = 0;
       int tail = head + count;
@@ -1229,7 +1426,7 @@ public class ChannelSftp extends ChannelSession{
     }
 
     int size() {
-      return rrq.length;
+      return size;
     } 
 
     void cancel(Header header, Buffer buf) throws IOException {
@@ -1282,10 +1479,47 @@ public class ChannelSftp extends ChannelSession{
     return get(src, monitor, 0L);
   }
   public InputStream get(String src, final SftpProgressMonitor monitor, final long skip) throws SftpException{
+    return get(src, monitor, skip, -1L);
+  }
 
-    try{
-      ((MyPipedInputStream)io_in).updateReadSide();
+  /**
+   * Returns a stream of at most <code>len</code> bytes of the remote
+   * file <code>src</code>, starting at <code>skip</code>.  No read is
+   * requested beyond that range, so several such streams can fetch
+   * different parts of a file without wasting any transfer.
+   *
+   * @param src remote file
+   * @param monitor progress monitor
+   * @param skip offset of the first byte
+   * @param len how many bytes to read, or -1 to read to the end of file
+   * @return input stream, which provides the data of <code>src</code>.
+   */
+  public InputStream get(String src, SftpProgressMonitor monitor, long skip, long len) throws SftpException{
+    return _get(src, monitor, skip, len, null);
+  }
 
+  /**
+   * Returns a stream of the parts of the remote file <code>src</code>
+   * given by <code>ranges</code>, one after another, read over a single
+   * handle.  Reads for the next part are sent while the previous one is
+   * still arriving, so the transfer does not stall between parts.  The
+   * stream ends, and closes the file, the first time
+   * <code>ranges</code> returns null after every part given has been
+   * read.
+   *
+   * @param src remote file
+   * @param monitor progress monitor
+   * @param ranges supplies the parts to read
+   * @return input stream, which provides the data of <code>src</code>.
+   * @see ChannelSftp.RangeSource
+   */
+  public InputStream get(String src, SftpProgressMonitor monitor, RangeSource ranges) throws SftpException{
+    return _get(src, monitor, 0L, 0L, ranges);
+  }
+
+  private InputStream _get(String src, final SftpProgressMonitor monitor, final long skip, long len, final RangeSource source) throws SftpException{
+
+    try{
       src=remoteAbsolutePath(src);
       src=isUnique(src);
 
@@ -1315,7 +1549,12 @@ public class ChannelSftp extends ChannelSession{
 
       final byte[] handle=buf.getString();         // handle
 
-      rq.init();
+      final int request_len=readLength();
+      final Vector ranges=new Vector();
+      if(source==null){
+        ranges.addElement(new long[]{skip, (len<0) ? Long.MAX_VALUE : skip+len});
+      }
+      rq.init(request_len);
 
       java.io.InputStream in=new java.io.InputStream(){
            long offset=skip;
@@ -1324,8 +1563,36 @@ public class ChannelSftp extends ChannelSession{
            byte[] _data=new byte[1];
            byte[] rest_byte=new byte[1024];
            Header header=new Header();
-           int request_max=1;
-           long request_offset=offset;
+
+           // ranges holds {start, end} of each part not yet fully read,
+           // and reads are being sent for ranges[cur] from request_offset
+           int cur=(source==null) ? 0 : -1;
+           long request_offset=(source==null) ? skip : 0L;
+           long end=(source==null) ? ((long[])ranges.elementAt(0))[1] : 0L;
+
+           // moves on to the next part, asking source for one if needed
+           boolean nextRange(){
+             if(cur+1>=ranges.size()){
+               long[] r=(source==null) ? null : source.next();
+               if(r==null) return false;
+               ranges.addElement(new long[]{r[0], r[0]+r[1]});
+             }
+             long[] r=(long[])ranges.elementAt(++cur);
+             request_offset=r[0];
+             end=r[1];
+             return true;
+           }
+
+           // all reads were cancelled, carry on sending from pos
+           void resend(long pos){
+             while(ranges.size()>1 && ((long[])ranges.elementAt(0))[1]<=pos){
+               ranges.removeElementAt(0);
+             }
+             long[] r=(long[])ranges.elementAt(0);
+             cur=0;
+             request_offset=Math.max(pos, r[0]);
+             end=r[1];
+           }
 
            public int read() throws java.io.IOException{
              if(closed)return -1;
@@ -1374,17 +1641,20 @@ public class ChannelSftp extends ChannelSession{
                len=1024; 
              }
 
-             if(rq.count()==0) {
-               int request_len = buf.buffer.length-13;
-               if(server_version==0){ request_len=1024; }
-
-               while(rq.count() < request_max){
-                 try{
-                   sendREAD(handle, request_offset, request_len, rq);
-                 }
-                 catch(Exception e){ throw new IOException("error"); }
-                 request_offset += request_len;
+             while(rq.count() < rq.depth()){
+               if(request_offset>=end && !nextRange()){
+                 break;
                }
+               int _request_len=(int)Math.min(request_len, end-request_offset);
+               try{
+                 sendREAD(handle, request_offset, _request_len, rq);
+               }
+               catch(Exception e){ throw new IOException("error"); }
+               request_offset += _request_len;
+             }
+             if(rq.count()==0){  // the whole range has been read
+               close();
+               return -1;
              }
 
              header=header(buf, header);
@@ -1397,8 +1667,9 @@ public class ChannelSftp extends ChannelSession{
                rr = rq.get(header.rid);
              }
              catch(RequestQueue.OutOfOrderException e){
-               request_offset = e.offset;
+               resend(e.offset);
                skip(header.length);
+               rest_length=0;
                rq.cancel(header, buf);
                return 0;
              }
@@ -1438,6 +1709,10 @@ public class ChannelSftp extends ChannelSession{
              int optional_data = rest_length - length_of_data;
 
              offset += length_of_data;
+             while(cur>0 && ((long[])ranges.elementAt(0))[1]<=rr.offset){
+               ranges.removeElementAt(0);
+               cur--;
+             }
              int foo = length_of_data;
              if(foo>0){
                int bar=foo;
@@ -1478,12 +1753,10 @@ public class ChannelSftp extends ChannelSession{
                             (int)(rr.length-length_of_data), rq);
                  }
                  catch(Exception e){ throw new IOException("error"); }
-                 request_offset=rr.offset+rr.length;
+                 resend(rr.offset+rr.length);
                }
 
-               if(request_max < rq.size()){
-                 request_max++;
-               }
+               rq.received(length_of_data);
 
                if(monitor!=null){
                  if(!monitor.count(i)){
@@ -1540,8 +1813,6 @@ public class ChannelSftp extends ChannelSession{
    public void ls(String path, LsEntrySelector selector) throws SftpException{
      //System.out.println("ls: "+path);
      try{
-       ((MyPipedInputStream)io_in).updateReadSide();
-
        path=remoteAbsolutePath(path);
        byte[] pattern=null;
        java.util.Vector v=new java.util.Vector();
@@ -1729,7 +2000,6 @@ public class ChannelSftp extends ChannelSession{
                                  "The remote sshd is too old to support symlink operation.");
        }
 
-       ((MyPipedInputStream)io_in).updateReadSide();
 
        path=remoteAbsolutePath(path);
 
@@ -1779,8 +2049,6 @@ public class ChannelSftp extends ChannelSession{
      }
 
      try{
-       ((MyPipedInputStream)io_in).updateReadSide();
-
        String _oldpath=remoteAbsolutePath(oldpath);
        newpath=remoteAbsolutePath(newpath);
 
@@ -1831,8 +2099,6 @@ public class ChannelSftp extends ChannelSession{
      }
 
      try{
-       ((MyPipedInputStream)io_in).updateReadSide();
-
        String _oldpath=remoteAbsolutePath(oldpath);
        newpath=remoteAbsolutePath(newpath);
 
@@ -1883,8 +2149,6 @@ public class ChannelSftp extends ChannelSession{
      }
 
      try{
-       ((MyPipedInputStream)io_in).updateReadSide();
-
        oldpath=remoteAbsolutePath(oldpath);
        newpath=remoteAbsolutePath(newpath);
 
@@ -1931,8 +2195,6 @@ public class ChannelSftp extends ChannelSession{
   }
   public void rm(String path) throws SftpException{
     try{
-      ((MyPipedInputStream)io_in).updateReadSide();
-
       path=remoteAbsolutePath(path);
 
       Vector v=glob_remote(path);
@@ -1990,8 +2252,6 @@ public class ChannelSftp extends ChannelSession{
 
   public void chgrp(int gid, String path) throws SftpException{
     try{
-      ((MyPipedInputStream)io_in).updateReadSide();
-
       path=remoteAbsolutePath(path);
 
       Vector v=glob_remote(path);
@@ -2016,8 +2276,6 @@ public class ChannelSftp extends ChannelSession{
 
   public void chown(int uid, String path) throws SftpException{
     try{
-      ((MyPipedInputStream)io_in).updateReadSide();
-
       path=remoteAbsolutePath(path);
 
       Vector v=glob_remote(path);
@@ -2042,8 +2300,6 @@ public class ChannelSftp extends ChannelSession{
 
   public void chmod(int permissions, String path) throws SftpException{
     try{
-      ((MyPipedInputStream)io_in).updateReadSide();
-
       path=remoteAbsolutePath(path);
 
       Vector v=glob_remote(path);
@@ -2068,8 +2324,6 @@ public class ChannelSftp extends ChannelSession{
 
   public void setMtime(String path, int mtime) throws SftpException{
     try{
-      ((MyPipedInputStream)io_in).updateReadSide();
-
       path=remoteAbsolutePath(path);
 
       Vector v=glob_remote(path);
@@ -2094,8 +2348,6 @@ public class ChannelSftp extends ChannelSession{
 
   public void rmdir(String path) throws SftpException{
     try{
-      ((MyPipedInputStream)io_in).updateReadSide();
-
       path=remoteAbsolutePath(path);
 
       Vector v=glob_remote(path);
@@ -2133,8 +2385,6 @@ public class ChannelSftp extends ChannelSession{
 
   public void mkdir(String path) throws SftpException{
     try{
-      ((MyPipedInputStream)io_in).updateReadSide();
-
       path=remoteAbsolutePath(path);
 
       sendMKDIR(Util.str2byte(path, fEncoding), null);
@@ -2164,8 +2414,6 @@ public class ChannelSftp extends ChannelSession{
 
   public SftpATTRS stat(String path) throws SftpException{
     try{
-      ((MyPipedInputStream)io_in).updateReadSide();
-
       path=remoteAbsolutePath(path);
       path=isUnique(path);
 
@@ -2217,8 +2465,6 @@ public class ChannelSftp extends ChannelSession{
 
   public SftpStatVFS statVFS(String path) throws SftpException{
     try{
-      ((MyPipedInputStream)io_in).updateReadSide();
-
       path=remoteAbsolutePath(path);
       path=isUnique(path);
 
@@ -2275,10 +2521,60 @@ public class ChannelSftp extends ChannelSession{
     return _statVFS(Util.str2byte(path, fEncoding));
   }
 
+  /*
+   * Asks the server how long its reads and writes may be.  Without an
+   * answer, requests keep to what fits into one channel packet.
+   */
+  private void readLimits() throws Exception{
+    sendLIMITS();
+
+    Header header=new Header();
+    header=header(buf, header);
+    int length=header.length;
+    int type=header.type;
+
+    fill(buf, length);
+
+    if(type != (SSH_FXP_EXTENDED_REPLY&0xff)){
+      return;
+    }
+    buf.getLong();                            // max-packet-length
+    max_read_length=limit(buf.getLong());     // max-read-length
+    max_write_length=limit(buf.getLong());    // max-write-length
+
+    // the whole message, headers included, has to fit MAX_MSG_LENGTH
+    int size=Math.min(max_write_length, MAX_MSG_LENGTH-1024);
+    if(size>0 && obuf.buffer.length<size+5+13+21+256+Session.buffer_margin){
+      obuf=new Buffer(size+5+13+21+256+Session.buffer_margin);
+      opacket=new Packet(obuf);
+    }
+  }
+
+  private static int limit(long l){
+    if(l<=0 || l>MAX_MSG_LENGTH-1024) return MAX_MSG_LENGTH-1024;
+    return (int)l;
+  }
+
+  /*
+   * The length to ask for in an SSH_FXP_READ.
+   */
+  private int readLength(){
+    if(server_version==0) return 1024;
+    if(max_read_length>0) return max_read_length;
+    return buf.buffer.length-13;
+  }
+
+  /*
+   * How much data one SSH_FXP_WRITE on handle may carry.
+   */
+  private int writeLength(byte[] handle){
+    int len=obuf.buffer.length-(5+13+21+handle.length+Session.buffer_margin);
+    if(max_write_length>0 && len>max_write_length) len=max_write_length;
+    return len;
+  }
+
   public SftpATTRS lstat(String path) throws SftpException{
     try{
-      ((MyPipedInputStream)io_in).updateReadSide();
-
       path=remoteAbsolutePath(path);
       path=isUnique(path);
 
@@ -2354,8 +2650,6 @@ public class ChannelSftp extends ChannelSession{
 
   public void setStat(String path, SftpATTRS attr) throws SftpException{
     try{
-      ((MyPipedInputStream)io_in).updateReadSide();
-
       path=remoteAbsolutePath(path);
 
       Vector v=glob_remote(path);
@@ -2405,8 +2699,6 @@ public class ChannelSftp extends ChannelSession{
   public String getHome() throws SftpException {
     if(home==null){
       try{
-        ((MyPipedInputStream)io_in).updateReadSide();
-
         byte[] _home=_realpath("");
         home=Util.byte2str(_home, fEncoding);
       }
@@ -2481,6 +2773,14 @@ public class ChannelSftp extends ChannelSession{
   private void sendSTATVFS(byte[] path) throws Exception{
     sendPacketPath((byte)0, path, "statvfs@openssh.com");
   }
+  private void sendLIMITS() throws Exception{
+    byte[] extension=Util.str2byte("limits@openssh.com");
+    packet.reset();
+    putHEAD(SSH_FXP_EXTENDED, 9+extension.length);
+    buf.putInt(seq++);
+    buf.putString(extension);
+    getSession().write(packet, this, 9+extension.length+4);
+  }
   /*
   private void sendFSTATVFS(byte[] handle) throws Exception{
     sendPacketPath((byte)0, handle, "fstatvfs@openssh.com");
@@ -2604,6 +2904,9 @@ public class ChannelSftp extends ChannelSession{
       _length=obuf.buffer.length-(obuf.index+13+21+handle.length+Session.buffer_margin);
       // System.err.println("_length="+_length+" length="+length);
     }
+    if(max_write_length>0 && _length>max_write_length){
+      _length=max_write_length;
+    }
 
     putHEAD(obuf, SSH_FXP_WRITE, 21+handle.length+_length);       // 14
     obuf.putInt(seq++);                                      //  4
@@ -2854,6 +3157,158 @@ public class ChannelSftp extends ChannelSession{
     return (new File(path)).isAbsolute();
   }
 
+  /**
+   * Sends an SSH_FXP_STAT for <code>path</code> without waiting for the
+   * reply.  <code>path</code> is used as it is, it is neither a pattern
+   * nor unquoted.  The result of the returned future is a
+   * <code>SftpATTRS</code>.
+   *
+   * @param path remote file, relative to the current directory unless absolute
+   * @param callback invoked when the reply has been read, may be <code>null</code>
+   * @see SftpFuture
+   */
+  public SftpFuture statAsync(String path, SftpFuture.Callback callback) throws SftpException{
+    try{
+      path=remoteAbsolutePath(path);
+      int id=seq;
+      sendSTAT(Util.str2byte(path, fEncoding));
+      return pending(id, SftpFuture.ATTRS, path, callback);
+    }
+    catch(Exception e){
+      if(e instanceof SftpException) throw (SftpException)e;
+      throw new SftpException(SSH_FX_FAILURE, e.toString(), e);
+    }
+  }
+
+  /**
+   * Like <code>statAsync</code>, but with SSH_FXP_LSTAT, so a symbolic
+   * link is not followed.
+   */
+  public SftpFuture lstatAsync(String path, SftpFuture.Callback callback) throws SftpException{
+    try{
+      path=remoteAbsolutePath(path);
+      int id=seq;
+      sendLSTAT(Util.str2byte(path, fEncoding));
+      return pending(id, SftpFuture.ATTRS, path, callback);
+    }
+    catch(Exception e){
+      if(e instanceof SftpException) throw (SftpException)e;
+      throw new SftpException(SSH_FX_FAILURE, e.toString(), e);
+    }
+  }
+
+  /**
+   * Sends an SSH_FXP_READLINK without waiting for the reply.  The
+   * result of the returned future is the target of the link.
+   */
+  public SftpFuture readlinkAsync(String path, SftpFuture.Callback callback) throws SftpException{
+    if(server_version<3){
+      throw new SftpException(SSH_FX_OP_UNSUPPORTED, 
+                              "The remote sshd is too old to support symlink operation.");
+    }
+    try{
+      path=remoteAbsolutePath(path);
+      int id=seq;
+      sendREADLINK(Util.str2byte(path, fEncoding));
+      return pending(id, SftpFuture.NAME, path, callback);
+    }
+    catch(Exception e){
+      if(e instanceof SftpException) throw (SftpException)e;
+      throw new SftpException(SSH_FX_FAILURE, e.toString(), e);
+    }
+  }
+
+  /**
+   * Sends an SSH_FXP_REALPATH without waiting for the reply.  The
+   * result of the returned future is the canonical absolute path.
+   */
+  public SftpFuture realpathAsync(String path, SftpFuture.Callback callback) throws SftpException{
+    try{
+      path=remoteAbsolutePath(path);
+      int id=seq;
+      sendREALPATH(Util.str2byte(path, fEncoding));
+      return pending(id, SftpFuture.NAME, path, callback);
+    }
+    catch(Exception e){
+      if(e instanceof SftpException) throw (SftpException)e;
+      throw new SftpException(SSH_FX_FAILURE, e.toString(), e);
+    }
+  }
+
+  /**
+   * Sends an SSH_FXP_MKDIR without waiting for the reply.
+   */
+  public SftpFuture mkdirAsync(String path, SftpFuture.Callback callback) throws SftpException{
+    try{
+      path=remoteAbsolutePath(path);
+      int id=seq;
+      sendMKDIR(Util.str2byte(path, fEncoding), null);
+      return pending(id, SftpFuture.STATUS, path, callback);
+    }
+    catch(Exception e){
+      if(e instanceof SftpException) throw (SftpException)e;
+      throw new SftpException(SSH_FX_FAILURE, e.toString(), e);
+    }
+  }
+
+  /**
+   * Sends an SSH_FXP_REMOVE without waiting for the reply.
+   */
+  public SftpFuture rmAsync(String path, SftpFuture.Callback callback) throws SftpException{
+    try{
+      path=remoteAbsolutePath(path);
+      int id=seq;
+      sendREMOVE(Util.str2byte(path, fEncoding));
+      return pending(id, SftpFuture.STATUS, path, callback);
+    }
+    catch(Exception e){
+      if(e instanceof SftpException) throw (SftpException)e;
+      throw new SftpException(SSH_FX_FAILURE, e.toString(), e);
+    }
+  }
+
+  /**
+   * Sends an SSH_FXP_RENAME, or posix-rename@openssh.com if the server
+   * has it, without waiting for the reply.  <code>getPath()</code> of
+   * the returned future is <code>oldpath</code>.
+   */
+  public SftpFuture renameAsync(String oldpath, String newpath, SftpFuture.Callback callback) throws SftpException{
+    if(server_version<2){
+      throw new SftpException(SSH_FX_OP_UNSUPPORTED, 
+                              "The remote sshd is too old to support rename operation.");
+    }
+    try{
+      oldpath=remoteAbsolutePath(oldpath);
+      newpath=remoteAbsolutePath(newpath);
+      int id=seq;
+      sendRENAME(Util.str2byte(oldpath, fEncoding),
+                 Util.str2byte(newpath, fEncoding));
+      return pending(id, SftpFuture.STATUS, oldpath, callback);
+    }
+    catch(Exception e){
+      if(e instanceof SftpException) throw (SftpException)e;
+      throw new SftpException(SSH_FX_FAILURE, e.toString(), e);
+    }
+  }
+
+  /**
+   * Reads the replies to all outstanding asynchronous requests,
+   * invoking their callbacks.
+   */
+  public void awaitAsync() throws SftpException{
+    while(!async.isEmpty()){
+      Object id=async.keys().nextElement();
+      await((SftpFuture)async.get(id));
+    }
+  }
+
+  private SftpFuture pending(int id, int kind, String path,
+                             SftpFuture.Callback callback){
+    SftpFuture f=new SftpFuture(this, kind, path, callback);
+    async.put(new Integer(id), f);
+    return f;
+  }
+
   public void disconnect(){
     super.disconnect();
   }
@@ -2904,6 +3359,14 @@ public class ChannelSftp extends ChannelSession{
     int rid;
   }
   private Header header(Buffer buf, Header header) throws IOException{
+    while(true){
+      readHeader(buf, header);
+      if(!dispatch(header)){
+        return header;
+      }
+    }
+  }
+  private Header readHeader(Buffer buf, Header header) throws IOException{
     buf.rewind();
     int i=fill(buf.buffer, 0, 9);
     header.length=buf.getInt()-5;
@@ -2912,6 +3375,80 @@ public class ChannelSftp extends ChannelSession{
     return header;
   }
 
+  /*
+   * If header starts the reply to an outstanding asynchronous request,
+   * reads the rest of it, completes that request and returns true.
+   */
+  private boolean dispatch(Header header) throws IOException{
+    if(async.isEmpty()){
+      return false;
+    }
+    SftpFuture f=(SftpFuture)async.remove(new Integer(header.rid));
+    if(f==null){
+      return false;
+    }
+    fill(buf, header.length);
+    Object result=null;
+    SftpException error=null;
+    try{
+      if(header.type==SSH_FXP_STATUS){
+        int i=buf.getInt();
+        if(i!=SSH_FX_OK){
+          throwStatusError(buf, i);
+        }
+        if(f.kind!=SftpFuture.STATUS){
+          throw new SftpException(SSH_FX_FAILURE, "");
+        }
+      }
+      else if(header.type==SSH_FXP_ATTRS && f.kind==SftpFuture.ATTRS){
+        result=SftpATTRS.getATTR(buf);
+      }
+      else if(header.type==SSH_FXP_NAME && f.kind==SftpFuture.NAME){
+        int count=buf.getInt();
+        byte[] filename=null;
+        for(int i=0; i<count; i++){
+          filename=buf.getString();
+          if(server_version<=3){
+            byte[] longname=buf.getString();
+          }
+          SftpATTRS.getATTR(buf);
+        }
+        if(filename==null){
+          throw new SftpException(SSH_FX_FAILURE, "");
+        }
+        result=Util.byte2str(filename, fEncoding);
+      }
+      else{
+        throw new SftpException(SSH_FX_FAILURE, "invalid type="+header.type);
+      }
+    }
+    catch(SftpException e){
+      error=e;
+    }
+    f.complete(result, error);
+    return true;
+  }
+
+  /*
+   * Reads replies until f is complete.
+   */
+  void await(SftpFuture f) throws SftpException{
+    Header header=new Header();
+    try{
+      while(!f.isDone()){
+        readHeader(buf, header);
+        if(!dispatch(header)){
+          skip(header.length);
+          throw new SftpException(SSH_FX_FAILURE,
+                                  "unexpected reply id="+header.rid);
+        }
+      }
+    }
+    catch(IOException e){
+      throw new SftpException(SSH_FX_FAILURE, e.toString(), e);
+    }
+  }
+
   private String remoteAbsolutePath(String path) throws SftpException{
     if(path.charAt(0)=='/') return path;
     String cwd=getCwd();
@@ -3004,6 +3541,27 @@ public class ChannelSftp extends ChannelSession{
     }
   }
 
+  /**
+   * Supplies the parts of a file to be read by
+   * <code>get(String, SftpProgressMonitor, RangeSource)</code>.
+   *
+   * @see #get(String, SftpProgressMonitor, ChannelSftp.RangeSource)
+   */
+  public interface RangeSource {
+    /**
+     * Returns the next part to read as {offset, length}, or null if
+     * there is none for now.  It is called whenever the stream could
+     * send more reads.  Returning null while reads for earlier parts
+     * are still outstanding just holds the next part back, and it may
+     * be given on a later call.  Returning null when every part given
+     * has been read ends the stream: <code>read</code> returns -1 and
+     * the file is closed.  So a source that will have more parts must
+     * have the next one ready before the stream is read past the end
+     * of the last.  Parts must be given in increasing order of offset.
+     */
+    public long[] next();
+  }
+
   /**
    * This interface will be passed as an argument for <code>ls</code> method.
    *
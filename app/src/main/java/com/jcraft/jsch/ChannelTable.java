@@ -0,0 +1,109 @@
+/* -*-mode:java; c-basic-offset:2; indent-tabs-mode:nil -*- */
+/*
+Copyright (c) 2002-2014 ymnk, JCraft,Inc. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+  1. Redistributions of source code must retain the above copyright notice,
+     this list of conditions and the following disclaimer.
+
+  2. Redistributions in binary form must reproduce the above copyright 
+     notice, this list of conditions and the following disclaimer in 
+     the documentation and/or other materials provided with the distribution.
+
+  3. The names of the authors may not be used to endorse or promote products
+     derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL JCRAFT,
+INC. OR ANY CONTRIBUTORS TO THIS SOFTWARE BE LIABLE FOR ANY DIRECT, INDIRECT,
+INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.jcraft.jsch;
+
+/**
+ * The channels of one session, indexed by local channel id.  Lookups
+ * are done on the receive path for nearly every packet and take no lock:
+ * the open-addressed table is replaced as a whole, under the table's
+ * lock, whenever a channel is added or removed.
+ */
+class ChannelTable{
+  private static final int MIN_SIZE=16;
+
+  private Channel[] channels=new Channel[0];        // all members
+  private volatile Channel[] table=new Channel[MIN_SIZE];
+
+  Channel get(int id){
+    Channel[] tab=table;
+    int mask=tab.length-1;
+    int i=id&mask;
+    while(true){
+      Channel c=tab[i];
+      if(c==null || c.id==id){
+        return c;
+      }
+      i=(i+1)&mask;
+    }
+  }
+
+  synchronized void add(Channel channel){
+    for(int i=0; i<channels.length; i++){
+      if(channels[i]==channel) return;
+    }
+    Channel[] foo=new Channel[channels.length+1];
+    System.arraycopy(channels, 0, foo, 0, channels.length);
+    foo[channels.length]=channel;
+    channels=foo;
+    rehash();
+  }
+
+  synchronized void remove(Channel channel){
+    for(int i=0; i<channels.length; i++){
+      if(channels[i]!=channel) continue;
+      Channel[] foo=new Channel[channels.length-1];
+      System.arraycopy(channels, 0, foo, 0, i);
+      System.arraycopy(channels, i+1, foo, i, channels.length-i-1);
+      channels=foo;
+      rehash();
+      return;
+    }
+  }
+
+  /**
+   * Returns a snapshot of the channels in this table.
+   */
+  synchronized Channel[] toArray(){
+    Channel[] foo=new Channel[channels.length];
+    System.arraycopy(channels, 0, foo, 0, channels.length);
+    return foo;
+  }
+
+  synchronized int size(){
+    return channels.length;
+  }
+
+  private void rehash(){
+    int size=MIN_SIZE;
+    while(size<channels.length*2){
+      size<<=1;
+    }
+    Channel[] tab=new Channel[size];
+    int mask=size-1;
+    for(int j=0; j<channels.length; j++){
+      int i=channels[j].id&mask;
+      while(tab[i]!=null){
+        i=(i+1)&mask;
+      }
+      tab[i]=channels[j];
+    }
+    table=tab;
+  }
+}
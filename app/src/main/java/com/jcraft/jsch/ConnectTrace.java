@@ -0,0 +1,120 @@
+/* -*-mode:java; c-basic-offset:2; indent-tabs-mode:nil -*- */
+/*
+Copyright (c) 2002-2014 ymnk, JCraft,Inc. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+  1. Redistributions of source code must retain the above copyright notice,
+     this list of conditions and the following disclaimer.
+
+  2. Redistributions in binary form must reproduce the above copyright 
+     notice, this list of conditions and the following disclaimer in 
+     the documentation and/or other materials provided with the distribution.
+
+  3. The names of the authors may not be used to endorse or promote products
+     derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL JCRAFT,
+INC. OR ANY CONTRIBUTORS TO THIS SOFTWARE BE LIABLE FOR ANY DIRECT, INDIRECT,
+INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.jcraft.jsch;
+
+import java.util.Vector;
+
+/**
+ * Timeline of the setup of a session, as returned by
+ * {@link Session#getConnectTrace()}.  Each phase covers the time
+ * from the end of the previous one, so the phases of
+ * {@link Session#connect()} add up to the total connect time.
+ * Authentication phases include any time spent waiting for the user
+ * to type a password or answer a prompt, and the host key phase
+ * includes the time to confirm an unknown key.
+ * Times are in microseconds.
+ */
+public class ConnectTrace{
+  private final Vector names=new Vector();
+  private final Vector times=new Vector();
+  private long start=0;
+  private long last=0;
+  private long total=0;
+  private long channel_open=-1;
+
+  ConnectTrace(){
+    start=last=System.nanoTime();
+  }
+
+  /*
+   * Ends the current phase and names it.
+   */
+  synchronized void mark(String phase){
+    long now=System.nanoTime();
+    names.addElement(phase);
+    times.addElement(new Long((now-last)/1000));
+    last=now;
+  }
+
+  synchronized void end(){
+    total=(last-start)/1000;
+  }
+
+  /*
+   * Records the round trip of the first channel opened on the session.
+   * It comes after connect() has returned, so is not part of the total.
+   */
+  synchronized void channelOpened(long nanos){
+    if(channel_open<0)
+      channel_open=nanos/1000;
+  }
+
+  public synchronized int getPhaseCount(){ return names.size(); }
+  public synchronized String getPhaseName(int i){
+    return (String)names.elementAt(i);
+  }
+  public synchronized long getPhaseTime(int i){
+    return ((Long)times.elementAt(i)).longValue();
+  }
+
+  /**
+   * Time spent in connect(), or 0 if it has not completed.
+   */
+  public synchronized long getTotalTime(){ return total; }
+
+  /**
+   * Time to open the first channel, or -1 if none has been opened yet.
+   */
+  public synchronized long getChannelOpenTime(){ return channel_open; }
+
+  public synchronized String toString(){
+    StringBuffer sb=new StringBuffer();
+    for(int i=0; i<names.size(); i++){
+      line(sb, (String)names.elementAt(i),
+           ((Long)times.elementAt(i)).longValue());
+    }
+    if(total>0){
+      line(sb, "total", total);
+    }
+    if(channel_open>=0){
+      line(sb, "channel open", channel_open);
+    }
+    return sb.toString();
+  }
+
+  private static void line(StringBuffer sb, String name, long us){
+    sb.append(name);
+    sb.append(": ");
+    sb.append(us/1000);
+    sb.append('.');
+    sb.append((us/100)%10);
+    sb.append(" ms\n");
+  }
+}
@@ -0,0 +1,168 @@
+/* -*-mode:java; c-basic-offset:2; indent-tabs-mode:nil -*- */
+/*
+Copyright (c) 2002-2014 ymnk, JCraft,Inc. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+  1. Redistributions of source code must retain the above copyright notice,
+     this list of conditions and the following disclaimer.
+
+  2. Redistributions in binary form must reproduce the above copyright 
+     notice, this list of conditions and the following disclaimer in 
+     the documentation and/or other materials provided with the distribution.
+
+  3. The names of the authors may not be used to endorse or promote products
+     derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL JCRAFT,
+INC. OR ANY CONTRIBUTORS TO THIS SOFTWARE BE LIABLE FOR ANY DIRECT, INDIRECT,
+INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.jcraft.jsch;
+
+/**
+ * curve25519-sha256 key exchange (RFC 8731), also offered under its
+ * older name curve25519-sha256@libssh.org.  One X25519 operation on
+ * each side replaces the 2048-bit modular exponentiation of group14.
+ */
+public class DH25519 extends KeyExchange{
+
+  private static final int SSH_MSG_KEX_ECDH_INIT=                  30;
+  private static final int SSH_MSG_KEX_ECDH_REPLY=                 31;
+
+  private int state;
+
+  XDH xdh;
+
+  byte[] V_S;
+  byte[] V_C;
+  byte[] I_S;
+  byte[] I_C;
+
+  byte[] Q_C;
+
+  private Buffer buf;
+  private Packet packet;
+
+  public void init(Session session,
+		   byte[] V_S, byte[] V_C, byte[] I_S, byte[] I_C) throws Exception{
+    this.session=session;
+    this.V_S=V_S;      
+    this.V_C=V_C;      
+    this.I_S=I_S;      
+    this.I_C=I_C;      
+
+    try{
+      Class c=Class.forName(session.getConfig("sha-256"));
+      sha=(HASH)(c.newInstance());
+      sha.init();
+    }
+    catch(Exception e){
+      System.err.println(e);
+    }
+
+    buf=new Buffer();
+    packet=new Packet(buf);
+
+    Class c=Class.forName(session.getConfig("x25519"));
+    xdh=(XDH)(c.newInstance());
+    xdh.init();
+
+    // The client sends:
+    // byte     SSH_MSG_KEX_ECDH_INIT(30)
+    // string   Q_C, client's ephemeral public key octet string
+
+    Q_C=xdh.getPublicKey();
+    packet.reset();
+    buf.putByte((byte)SSH_MSG_KEX_ECDH_INIT);
+    buf.putString(Q_C);
+
+    if(V_S==null){  // This is a really ugly hack for Session.checkKexes ;-(
+      return;
+    }
+
+    session.write(packet);
+
+    if(JSch.getLogger().isEnabled(Logger.INFO)){
+      JSch.getLogger().log(Logger.INFO, 
+                           "SSH_MSG_KEX_ECDH_INIT sent");
+      JSch.getLogger().log(Logger.INFO, 
+                           "expecting SSH_MSG_KEX_ECDH_REPLY");
+    }
+
+    state=SSH_MSG_KEX_ECDH_REPLY;
+  }
+
+  public boolean next(Buffer _buf) throws Exception{
+    int i,j;
+
+    switch(state){
+    case SSH_MSG_KEX_ECDH_REPLY:
+      // The server responds with:
+      // byte     SSH_MSG_KEX_ECDH_REPLY(31)
+      // string   K_S, server's public host key
+      // string   Q_S, server's ephemeral public key octet string
+      // string   the signature on the exchange hash
+      j=_buf.getInt();
+      j=_buf.getByte();
+      j=_buf.getByte();
+      if(j!=31){
+	System.err.println("type: must be 31 "+j);
+	return false;
+      }
+
+      K_S=_buf.getString();
+      byte[] Q_S=_buf.getString();
+      byte[] sig_of_H=_buf.getString();
+
+      // The X25519 output is encoded as an mpint by reading the 32 bytes
+      // as an unsigned big-endian number (RFC 8731 3.1).
+      K=normalize(xdh.getSharedSecret(Q_S));
+
+      //The hash H is computed as the HASH hash of the concatenation of the
+      //following:
+      // string   V_C, client's identification string (CR and LF excluded)
+      // string   V_S, server's identification string (CR and LF excluded)
+      // string   I_C, payload of the client's SSH_MSG_KEXINIT
+      // string   I_S, payload of the server's SSH_MSG_KEXINIT
+      // string   K_S, server's public host key
+      // string   Q_C, client's ephemeral public key octet string
+      // string   Q_S, server's ephemeral public key octet string
+      // mpint    K,   shared secret
+      buf.reset();
+      buf.putString(V_C); buf.putString(V_S);
+      buf.putString(I_C); buf.putString(I_S);
+      buf.putString(K_S);
+      buf.putString(Q_C); buf.putString(Q_S);
+      buf.putMPInt(K);
+      byte[] foo=new byte[buf.getLength()];
+      buf.getByte(foo);
+      sha.update(foo, 0, foo.length);
+      H=sha.digest();
+
+      i=0;
+      j=0;
+      j=((K_S[i++]<<24)&0xff000000)|((K_S[i++]<<16)&0x00ff0000)|
+	((K_S[i++]<<8)&0x0000ff00)|((K_S[i++])&0x000000ff);
+      String alg=Util.byte2str(K_S, i, j);
+      i+=j;
+
+      boolean result=verify(alg, K_S, i, sig_of_H);
+
+      state=STATE_END;
+      return result;
+    }
+    return false;
+  }
+
+  public int getState(){return state; }
+}
@@ -55,10 +55,6 @@ public class DHG1 extends KeyExchange{
   private static final int SSH_MSG_KEXDH_INIT=                     30;
   private static final int SSH_MSG_KEXDH_REPLY=                    31;
 
-  static final int RSA=0;
-  static final int DSS=1;
-  private int type=0;
-
   private int state;
 
   DH dh;
@@ -206,105 +202,13 @@ System.err.println("");
       String alg=Util.byte2str(K_S, i, j);
       i+=j;
 
-      boolean result=false;
-
-      if(alg.equals("ssh-rsa")){
-	byte[] tmp;
-	byte[] ee;
-	byte[] n;
-
-	type=RSA;
-
-	j=((K_S[i++]<<24)&0xff000000)|((K_S[i++]<<16)&0x00ff0000)|
-	  ((K_S[i++]<<8)&0x0000ff00)|((K_S[i++])&0x000000ff);
-	tmp=new byte[j]; System.arraycopy(K_S, i, tmp, 0, j); i+=j;
-	ee=tmp;
-	j=((K_S[i++]<<24)&0xff000000)|((K_S[i++]<<16)&0x00ff0000)|
-	  ((K_S[i++]<<8)&0x0000ff00)|((K_S[i++])&0x000000ff);
-	tmp=new byte[j]; System.arraycopy(K_S, i, tmp, 0, j); i+=j;
-	n=tmp;
-	
-//	SignatureRSA sig=new SignatureRSA();
-//	sig.init();
-
-	SignatureRSA sig=null;
-	try{
-	  Class c=Class.forName(session.getConfig("signature.rsa"));
-	  sig=(SignatureRSA)(c.newInstance());
-	  sig.init();
-	}
-	catch(Exception e){
-	  System.err.println(e);
-	}
-
-	sig.setPubKey(ee, n);   
-	sig.update(H);
-	result=sig.verify(sig_of_H);
-
-        if(JSch.getLogger().isEnabled(Logger.INFO)){
-          JSch.getLogger().log(Logger.INFO, 
-                               "ssh_rsa_verify: signature "+result);
-        }
-
-      }
-      else if(alg.equals("ssh-dss")){
-	byte[] q=null;
-	byte[] tmp;
-	byte[] p;
-	byte[] g;
-      
-	type=DSS;
-
-	j=((K_S[i++]<<24)&0xff000000)|((K_S[i++]<<16)&0x00ff0000)|
-	  ((K_S[i++]<<8)&0x0000ff00)|((K_S[i++])&0x000000ff);
-	tmp=new byte[j]; System.arraycopy(K_S, i, tmp, 0, j); i+=j;
-	p=tmp;
-	j=((K_S[i++]<<24)&0xff000000)|((K_S[i++]<<16)&0x00ff0000)|
-	  ((K_S[i++]<<8)&0x0000ff00)|((K_S[i++])&0x000000ff);
-	tmp=new byte[j]; System.arraycopy(K_S, i, tmp, 0, j); i+=j;
-	q=tmp;
-	j=((K_S[i++]<<24)&0xff000000)|((K_S[i++]<<16)&0x00ff0000)|
-	  ((K_S[i++]<<8)&0x0000ff00)|((K_S[i++])&0x000000ff);
-	tmp=new byte[j]; System.arraycopy(K_S, i, tmp, 0, j); i+=j;
-	g=tmp;
-	j=((K_S[i++]<<24)&0xff000000)|((K_S[i++]<<16)&0x00ff0000)|
-	  ((K_S[i++]<<8)&0x0000ff00)|((K_S[i++])&0x000000ff);
-	tmp=new byte[j]; System.arraycopy(K_S, i, tmp, 0, j); i+=j;
-	f=tmp;
-//	SignatureDSA sig=new SignatureDSA();
-//	sig.init();
-	SignatureDSA sig=null;
-	try{
-	  Class c=Class.forName(session.getConfig("signature.dss"));
-	  sig=(SignatureDSA)(c.newInstance());
-	  sig.init();
-	}
-	catch(Exception e){
-	  System.err.println(e);
-	}
-	sig.setPubKey(f, p, q, g);   
-	sig.update(H);
-	result=sig.verify(sig_of_H);
-
-        if(JSch.getLogger().isEnabled(Logger.INFO)){
-          JSch.getLogger().log(Logger.INFO, 
-                               "ssh_dss_verify: signature "+result);
-        }
+      boolean result=verify(alg, K_S, i, sig_of_H);
 
-      }
-      else{
-	System.err.println("unknown alg");
-      }	    
       state=STATE_END;
       return result;
     }
     return false;
   }
 
-  public String getKeyType(){
-    if(type==DSS) return "DSA";
-    return "RSA";
-  }
-
   public int getState(){return state; }
 }
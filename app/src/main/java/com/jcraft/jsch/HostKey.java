@@ -32,11 +32,17 @@ package com.jcraft.jsch;
 public class HostKey{
   private static final byte[] sshdss=Util.str2byte("ssh-dss");
   private static final byte[] sshrsa=Util.str2byte("ssh-rsa");
+  private static final byte[] ecdsa256=Util.str2byte("ecdsa-sha2-nistp256");
+  private static final byte[] ecdsa384=Util.str2byte("ecdsa-sha2-nistp384");
+  private static final byte[] ecdsa521=Util.str2byte("ecdsa-sha2-nistp521");
 
   protected static final int GUESS=0;
   public static final int SSHDSS=1;
   public static final int SSHRSA=2;
-  static final int UNKNOWN=3;
+  public static final int ECDSA256=3;
+  public static final int ECDSA384=4;
+  public static final int ECDSA521=5;
+  static final int UNKNOWN=6;
 
   protected String marker;
   protected String host;
@@ -58,9 +64,8 @@ public class HostKey{
     this.marker=marker;
     this.host=host; 
     if(type==GUESS){
-      if(key[8]=='d'){ this.type=SSHDSS; }
-      else if(key[8]=='r'){ this.type=SSHRSA; }
-      else { throw new JSchException("invalid key type");}
+      this.type=guessType(key);
+      if(this.type==UNKNOWN){ throw new JSchException("invalid key type");}
     }
     else{
       this.type=type; 
@@ -73,8 +78,35 @@ public class HostKey{
   public String getType(){
     if(type==SSHDSS){ return Util.byte2str(sshdss); }
     if(type==SSHRSA){ return Util.byte2str(sshrsa);}
+    if(type==ECDSA256){ return Util.byte2str(ecdsa256);}
+    if(type==ECDSA384){ return Util.byte2str(ecdsa384);}
+    if(type==ECDSA521){ return Util.byte2str(ecdsa521);}
     return "UNKNOWN";
   }
+
+  /**
+   * Maps a key type name such as "ssh-rsa" or "ecdsa-sha2-nistp256"
+   * to one of the type constants, or UNKNOWN.
+   */
+  public static int name2type(String name){
+    if(name.equals("ssh-dss")){ return SSHDSS; }
+    if(name.equals("ssh-rsa")){ return SSHRSA; }
+    if(name.equals("ecdsa-sha2-nistp256")){ return ECDSA256; }
+    if(name.equals("ecdsa-sha2-nistp384")){ return ECDSA384; }
+    if(name.equals("ecdsa-sha2-nistp521")){ return ECDSA521; }
+    return UNKNOWN;
+  }
+
+  /*
+   * The key blob starts with the key type name as an SSH string.
+   */
+  static int guessType(byte[] key){
+    if(key==null || key.length<4) return UNKNOWN;
+    int j=((key[0]<<24)&0xff000000)|((key[1]<<16)&0x00ff0000)|
+          ((key[2]<<8)&0x0000ff00)|((key[3])&0x000000ff);
+    if(j<0 || j>key.length-4) return UNKNOWN;
+    return name2type(Util.byte2str(key, 4, j));
+  }
   public String getKey(){
     return Util.byte2str(Util.toBase64(key, 0, key.length));
   }
@@ -57,12 +57,27 @@ public class IO{
   }
 
   public void put(Packet p) throws IOException, java.net.SocketException {
+    put(p, true);
+  }
+  void put(Packet p, boolean flush) throws IOException, java.net.SocketException {
     out.write(p.buffer.buffer, 0, p.buffer.index);
-    out.flush();
+    if(flush){
+      out.flush();
+    }
+  }
+  boolean isStale(){
+    OutputStream _out=out;
+    return (_out instanceof BatchedOutputStream) &&
+           ((BatchedOutputStream)_out).isStale();
   }
   void put(byte[] array, int begin, int length) throws IOException {
+    put(array, begin, length, true);
+  }
+  void put(byte[] array, int begin, int length, boolean flush) throws IOException {
     out.write(array, begin, length);
-    out.flush();
+    if(flush){
+      out.flush();
+    }
   }
   void put_ext(byte[] array, int begin, int length) throws IOException {
     out_ext.write(array, begin, length);
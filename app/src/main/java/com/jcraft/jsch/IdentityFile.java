@@ -79,6 +79,14 @@ class IdentityFile implements Identity{
     return kpair.getSignature(data);
   }
 
+  /**
+   * Signs on data with the given signature algorithm, e.g. "rsa-sha2-256"
+   * for an RSA key.
+   */
+  public byte[] getSignature(byte[] data, String alg){
+    return kpair.getSignature(data, alg);
+  }
+
   /**
    * @deprecated This method should not be invoked.
    * @see #setPassphrase(byte[] passphrase)
@@ -89,7 +97,7 @@ class IdentityFile implements Identity{
 
   /**
    * Returns the name of the key algorithm.
-   * @return "ssh-rsa" or "ssh-dss"
+   * @return "ssh-rsa", "ssh-dss" or "ssh-ed25519"
    */
   public String getAlgName(){
     return new String(kpair.getKeyTypeName());
@@ -40,16 +40,16 @@ public class JSch{
 
   static java.util.Hashtable config=new java.util.Hashtable();
   static{
-    config.put("kex", "diffie-hellman-group1-sha1,diffie-hellman-group14-sha1,diffie-hellman-group-exchange-sha1");
-    config.put("server_host_key", "ssh-rsa,ssh-dss");
+    config.put("kex", "curve25519-sha256,curve25519-sha256@libssh.org,ecdh-sha2-nistp256,ecdh-sha2-nistp384,ecdh-sha2-nistp521,diffie-hellman-group1-sha1,diffie-hellman-group14-sha1,diffie-hellman-group-exchange-sha1");
+    config.put("server_host_key", "ecdsa-sha2-nistp256,ecdsa-sha2-nistp384,ecdsa-sha2-nistp521,rsa-sha2-512,rsa-sha2-256,ssh-rsa,ssh-dss");
 
     config.put("cipher.s2c", 
-               "aes128-ctr,aes128-cbc,3des-ctr,3des-cbc,blowfish-cbc,aes192-cbc,aes256-cbc");
+               "chacha20-poly1305@openssh.com,aes128-gcm@openssh.com,aes256-gcm@openssh.com,aes128-ctr,aes128-cbc,3des-ctr,3des-cbc,blowfish-cbc,aes192-cbc,aes256-cbc");
     config.put("cipher.c2s",
-               "aes128-ctr,aes128-cbc,3des-ctr,3des-cbc,blowfish-cbc,aes192-cbc,aes256-cbc");
+               "chacha20-poly1305@openssh.com,aes128-gcm@openssh.com,aes256-gcm@openssh.com,aes128-ctr,aes128-cbc,3des-ctr,3des-cbc,blowfish-cbc,aes192-cbc,aes256-cbc");
 
-    config.put("mac.s2c", "hmac-md5,hmac-sha1,hmac-sha2-256,hmac-sha1-96,hmac-md5-96");
-    config.put("mac.c2s", "hmac-md5,hmac-sha1,hmac-sha2-256,hmac-sha1-96,hmac-md5-96");
+    config.put("mac.s2c", "hmac-sha2-256-etm@openssh.com,hmac-sha1-etm@openssh.com,hmac-md5,hmac-sha1,hmac-sha2-256,hmac-sha1-96,hmac-md5-96");
+    config.put("mac.c2s", "hmac-sha2-256-etm@openssh.com,hmac-sha1-etm@openssh.com,hmac-md5,hmac-sha1,hmac-sha2-256,hmac-sha1-96,hmac-md5-96");
     config.put("compression.s2c", "none");
     config.put("compression.c2s", "none");
 
@@ -67,12 +67,30 @@ public class JSch{
     config.put("diffie-hellman-group-exchange-sha256", 
                "com.jcraft.jsch.DHGEX256"); // avaibale since JDK1.4.2.
 
+    config.put("curve25519-sha256", 
+                                "com.jcraft.jsch.DH25519");
+    config.put("curve25519-sha256@libssh.org", 
+                                "com.jcraft.jsch.DH25519");
+
+    config.put("ecdh-sha2-nistp256", 
+                                "com.jcraft.jsch.DHEC256");
+    config.put("ecdh-sha2-nistp384", 
+                                "com.jcraft.jsch.DHEC384");
+    config.put("ecdh-sha2-nistp521", 
+                                "com.jcraft.jsch.DHEC521");
+
     config.put("dh",            "com.jcraft.jsch.jce.DH");
+    config.put("ecdh-sha2-nistp", "com.jcraft.jsch.jce.ECDHN");
+    config.put("x25519",        "com.jcraft.jsch.jcraft.X25519");
     config.put("3des-cbc",      "com.jcraft.jsch.jce.TripleDESCBC");
     config.put("blowfish-cbc",  "com.jcraft.jsch.jce.BlowfishCBC");
     config.put("hmac-sha1",     "com.jcraft.jsch.jce.HMACSHA1");
     config.put("hmac-sha1-96",  "com.jcraft.jsch.jce.HMACSHA196");
     config.put("hmac-sha2-256",  "com.jcraft.jsch.jce.HMACSHA256");
+    // The "-etm@openssh.com" variants use the same MACs, computed over
+    // the encrypted packet; Session tells them apart by their names.
+    config.put("hmac-sha1-etm@openssh.com",  "com.jcraft.jsch.jce.HMACSHA1");
+    config.put("hmac-sha2-256-etm@openssh.com",  "com.jcraft.jsch.jce.HMACSHA256");
     // The "hmac-sha2-512" will require the key-length 2048 for DH,
     // but Sun's JCE has not allowed to use such a long key.
     //config.put("hmac-sha2-512",  "com.jcraft.jsch.jce.HMACSHA512");
@@ -80,11 +98,20 @@ public class JSch{
     config.put("hmac-md5-96",   "com.jcraft.jsch.jce.HMACMD596");
     config.put("sha-1",         "com.jcraft.jsch.jce.SHA1");
     config.put("sha-256",         "com.jcraft.jsch.jce.SHA256");
+    config.put("sha-384",         "com.jcraft.jsch.jce.SHA384");
+    config.put("sha-512",         "com.jcraft.jsch.jce.SHA512");
     config.put("md5",           "com.jcraft.jsch.jce.MD5");
     config.put("signature.dss", "com.jcraft.jsch.jce.SignatureDSA");
     config.put("signature.rsa", "com.jcraft.jsch.jce.SignatureRSA");
+    config.put("rsa-sha2-256", "com.jcraft.jsch.jce.SignatureRSASHA256");
+    config.put("rsa-sha2-512", "com.jcraft.jsch.jce.SignatureRSASHA512");
+    config.put("signature.ed25519", "com.jcraft.jsch.jcraft.SignatureEd25519");
+    config.put("ecdsa-sha2-nistp256", "com.jcraft.jsch.jce.SignatureECDSA256");
+    config.put("ecdsa-sha2-nistp384", "com.jcraft.jsch.jce.SignatureECDSA384");
+    config.put("ecdsa-sha2-nistp521", "com.jcraft.jsch.jce.SignatureECDSA521");
     config.put("keypairgen.dsa",   "com.jcraft.jsch.jce.KeyPairGenDSA");
     config.put("keypairgen.rsa",   "com.jcraft.jsch.jce.KeyPairGenRSA");
+    config.put("keypairgen.ed25519", "com.jcraft.jsch.jcraft.KeyPairGenEd25519");
     config.put("random",        "com.jcraft.jsch.jce.Random");
 
     config.put("none",           "com.jcraft.jsch.CipherNone");
@@ -96,6 +123,9 @@ public class JSch{
     config.put("aes128-ctr",    "com.jcraft.jsch.jce.AES128CTR");
     config.put("aes192-ctr",    "com.jcraft.jsch.jce.AES192CTR");
     config.put("aes256-ctr",    "com.jcraft.jsch.jce.AES256CTR");
+    config.put("aes128-gcm@openssh.com", "com.jcraft.jsch.jce.AES128GCM");
+    config.put("aes256-gcm@openssh.com", "com.jcraft.jsch.jce.AES256GCM");
+    config.put("chacha20-poly1305@openssh.com", "com.jcraft.jsch.jcraft.ChaCha20Poly1305");
     config.put("3des-ctr",      "com.jcraft.jsch.jce.TripleDESCTR");
     config.put("arcfour",      "com.jcraft.jsch.jce.ARCFOUR");
     config.put("arcfour128",      "com.jcraft.jsch.jce.ARCFOUR128");
@@ -112,17 +142,27 @@ public class JSch{
     config.put("zlib@openssh.com", "com.jcraft.jsch.jcraft.Compression");
 
     config.put("pbkdf", "com.jcraft.jsch.jce.PBKDF");
+    config.put("bcrypt_pbkdf", "com.jcraft.jsch.jcraft.BCryptPBKDF");
 
     config.put("StrictHostKeyChecking",  "ask");
     config.put("HashKnownHosts",  "no");
 
     config.put("PreferredAuthentications", "gssapi-with-mic,publickey,keyboard-interactive,password");
 
-    config.put("CheckCiphers", "aes256-ctr,aes192-ctr,aes128-ctr,aes256-cbc,aes192-cbc,aes128-cbc,3des-ctr,arcfour,arcfour128,arcfour256");
-    config.put("CheckKexes", "diffie-hellman-group14-sha1");
+    config.put("CheckCiphers", "aes128-gcm@openssh.com,aes256-gcm@openssh.com,aes256-ctr,aes192-ctr,aes128-ctr,aes256-cbc,aes192-cbc,aes128-cbc,3des-ctr,arcfour,arcfour128,arcfour256");
+    config.put("CheckKexes", "diffie-hellman-group14-sha1,ecdh-sha2-nistp256,ecdh-sha2-nistp384,ecdh-sha2-nistp521");
+    config.put("pubkey_rsa_sig_algs", "rsa-sha2-512,rsa-sha2-256");
+    config.put("CheckSignatures", "ecdsa-sha2-nistp256,ecdsa-sha2-nistp384,ecdsa-sha2-nistp521,rsa-sha2-256,rsa-sha2-512");
+    config.put("prefer_known_host_key_types", "yes");
 
     config.put("MaxAuthTries", "6");
     config.put("ClearAllForwardings", "no");
+
+    config.put("send_pipeline", "yes");
+    config.put("pipeline_kexinit", "yes");
+
+    config.put("dns_cache_ttl", "60");
+    config.put("connection_attempt_delay", "250");
   }
 
   private java.util.Vector sessionPool = new java.util.Vector();
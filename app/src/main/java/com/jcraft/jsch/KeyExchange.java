@@ -70,9 +70,187 @@ public abstract class KeyExchange{
   public abstract void init(Session session, 
 			    byte[] V_S, byte[] V_C, byte[] I_S, byte[] I_C) throws Exception;
   public abstract boolean next(Buffer buf) throws Exception;
-  public abstract String getKeyType();
   public abstract int getState();
 
+  static final int RSA=0;
+  static final int DSS=1;
+  static final int ECDSA=2;
+  private int type=RSA;
+  private String key_alg_name="ssh-rsa";
+
+  public String getKeyType(){
+    if(type==DSS) return "DSA";
+    if(type==ECDSA) return "ECDSA";
+    return "RSA";
+  }
+
+  /*
+   * Returns the SSH name of the server's host key algorithm, as used in
+   * known_hosts, e.g. "ssh-rsa" or "ecdsa-sha2-nistp256".
+   */
+  public String getKeyAlgorithName(){
+    return key_alg_name;
+  }
+
+  /*
+   * Checks the signature of the exchange hash H made with the server's
+   * host key K_S, whose key blob, after the algorithm name, starts at
+   * K_S[index].  This is shared by all the key exchange methods.
+   */
+  protected boolean verify(String alg, byte[] K_S, int index,
+                           byte[] sig_of_H) throws Exception{
+    int i,j;
+
+    i=index;
+    boolean result=false;
+
+    key_alg_name=alg;
+
+    if(alg.equals("ssh-rsa") ||
+       alg.equals("rsa-sha2-256") ||
+       alg.equals("rsa-sha2-512")){
+      byte[] tmp;
+      byte[] ee;
+      byte[] n;
+
+      type=RSA;
+
+      j=((K_S[i++]<<24)&0xff000000)|((K_S[i++]<<16)&0x00ff0000)|
+        ((K_S[i++]<<8)&0x0000ff00)|((K_S[i++])&0x000000ff);
+      tmp=new byte[j]; System.arraycopy(K_S, i, tmp, 0, j); i+=j;
+      ee=tmp;
+      j=((K_S[i++]<<24)&0xff000000)|((K_S[i++]<<16)&0x00ff0000)|
+        ((K_S[i++]<<8)&0x0000ff00)|((K_S[i++])&0x000000ff);
+      tmp=new byte[j]; System.arraycopy(K_S, i, tmp, 0, j); i+=j;
+      n=tmp;
+
+      // the key is ssh-rsa whichever hash the signature uses
+      key_alg_name="ssh-rsa";
+
+      // The key blob names "ssh-rsa" even when rsa-sha2-256/512 was
+      // negotiated, so the hash comes from the negotiated host key
+      // algorithm, and the signature blob has to name the same one.
+      String sig_alg=session.guess[PROPOSAL_SERVER_HOST_KEY_ALGS];
+      if(!sig_alg.equals("rsa-sha2-256") && !sig_alg.equals("rsa-sha2-512")){
+        sig_alg="ssh-rsa";
+      }
+      j=((sig_of_H[0]<<24)&0xff000000)|((sig_of_H[1]<<16)&0x00ff0000)|
+        ((sig_of_H[2]<<8)&0x0000ff00)|((sig_of_H[3])&0x000000ff);
+      String foo=Util.byte2str(sig_of_H, 4, j);
+      if(!foo.equals(sig_alg)){
+        if(JSch.getLogger().isEnabled(Logger.INFO)){
+          JSch.getLogger().log(Logger.INFO, 
+                               "ssh_rsa_verify: signature is "+foo+
+                               ", expected "+sig_alg);
+        }
+        return false;
+      }
+
+      SignatureRSA sig=null;
+      try{
+        String name=sig_alg.equals("ssh-rsa") ? "signature.rsa" : sig_alg;
+        Class c=Class.forName(session.getConfig(name));
+        sig=(SignatureRSA)(c.newInstance());
+        sig.init();
+      }
+      catch(Exception e){
+        System.err.println(e);
+      }
+
+      sig.setPubKey(ee, n);
+      sig.update(H);
+      result=sig.verify(sig_of_H);
+
+      if(JSch.getLogger().isEnabled(Logger.INFO)){
+        JSch.getLogger().log(Logger.INFO, 
+                             "ssh_rsa_verify: signature "+result);
+      }
+    }
+    else if(alg.equals("ssh-dss")){
+      byte[] q=null;
+      byte[] tmp;
+      byte[] p;
+      byte[] g;
+      byte[] f;
+
+      type=DSS;
+
+      j=((K_S[i++]<<24)&0xff000000)|((K_S[i++]<<16)&0x00ff0000)|
+        ((K_S[i++]<<8)&0x0000ff00)|((K_S[i++])&0x000000ff);
+      tmp=new byte[j]; System.arraycopy(K_S, i, tmp, 0, j); i+=j;
+      p=tmp;
+      j=((K_S[i++]<<24)&0xff000000)|((K_S[i++]<<16)&0x00ff0000)|
+        ((K_S[i++]<<8)&0x0000ff00)|((K_S[i++])&0x000000ff);
+      tmp=new byte[j]; System.arraycopy(K_S, i, tmp, 0, j); i+=j;
+      q=tmp;
+      j=((K_S[i++]<<24)&0xff000000)|((K_S[i++]<<16)&0x00ff0000)|
+        ((K_S[i++]<<8)&0x0000ff00)|((K_S[i++])&0x000000ff);
+      tmp=new byte[j]; System.arraycopy(K_S, i, tmp, 0, j); i+=j;
+      g=tmp;
+      j=((K_S[i++]<<24)&0xff000000)|((K_S[i++]<<16)&0x00ff0000)|
+        ((K_S[i++]<<8)&0x0000ff00)|((K_S[i++])&0x000000ff);
+      tmp=new byte[j]; System.arraycopy(K_S, i, tmp, 0, j); i+=j;
+      f=tmp;
+
+      SignatureDSA sig=null;
+      try{
+        Class c=Class.forName(session.getConfig("signature.dss"));
+        sig=(SignatureDSA)(c.newInstance());
+        sig.init();
+      }
+      catch(Exception e){
+        System.err.println(e);
+      }
+      sig.setPubKey(f, p, q, g);
+      sig.update(H);
+      result=sig.verify(sig_of_H);
+
+      if(JSch.getLogger().isEnabled(Logger.INFO)){
+        JSch.getLogger().log(Logger.INFO, 
+                             "ssh_dss_verify: signature "+result);
+      }
+    }
+    else if(alg.equals("ecdsa-sha2-nistp256") ||
+            alg.equals("ecdsa-sha2-nistp384") ||
+            alg.equals("ecdsa-sha2-nistp521")){
+      // string  curve identifier, e.g. "nistp256"
+      // string  Q, the public point
+      byte[] Q;
+
+      type=ECDSA;
+
+      j=((K_S[i++]<<24)&0xff000000)|((K_S[i++]<<16)&0x00ff0000)|
+        ((K_S[i++]<<8)&0x0000ff00)|((K_S[i++])&0x000000ff);
+      i+=j;
+      j=((K_S[i++]<<24)&0xff000000)|((K_S[i++]<<16)&0x00ff0000)|
+        ((K_S[i++]<<8)&0x0000ff00)|((K_S[i++])&0x000000ff);
+      Q=new byte[j]; System.arraycopy(K_S, i, Q, 0, j); i+=j;
+
+      SignatureECDSA sig=null;
+      try{
+        Class c=Class.forName(session.getConfig(alg));
+        sig=(SignatureECDSA)(c.newInstance());
+        sig.init();
+      }
+      catch(Exception e){
+        System.err.println(e);
+      }
+      sig.setPubKey(Q);
+      sig.update(H);
+      result=sig.verify(sig_of_H);
+
+      if(JSch.getLogger().isEnabled(Logger.INFO)){
+        JSch.getLogger().log(Logger.INFO, 
+                             "ssh_ecdsa_verify: signature "+result);
+      }
+    }
+    else{
+      System.err.println("unknown alg");
+    }
+
+    return result;
+  }
+
   /*
   void dump(byte[] foo){
     for(int i=0; i<foo.length; i++){
@@ -132,6 +310,15 @@ public abstract class KeyExchange{
 	guess[i]="";
       }
       else if(guess[i]==null){
+        // An AEAD cipher authenticates by itself, so it does not
+        // matter if the MACs can not be agreed upon.
+        if((i==PROPOSAL_MAC_ALGS_CTOS &&
+            isAEAD(guess[PROPOSAL_ENC_ALGS_CTOS])) ||
+           (i==PROPOSAL_MAC_ALGS_STOC &&
+            isAEAD(guess[PROPOSAL_ENC_ALGS_STOC]))){
+          guess[i]="";
+          continue;
+        }
 	return null;
       }
     }
@@ -152,6 +339,16 @@ public abstract class KeyExchange{
     return guess;
   }
 
+  private static boolean isAEAD(String cipher){
+    try{
+      Class c=Class.forName(JSch.getConfig(cipher));
+      return AEADCipher.class.isAssignableFrom(c);
+    }
+    catch(Exception e){
+      return false;
+    }
+  }
+
   public String getFingerPrint(){
     HASH hash=null;
     try{
@@ -39,11 +39,15 @@ public abstract class KeyPair{
   public static final int DSA=1;
   public static final int RSA=2;
   public static final int UNKNOWN=3;
+  public static final int ED25519=4;
 
   static final int VENDOR_OPENSSH=0;
   static final int VENDOR_FSECURE=1;
   static final int VENDOR_PUTTY=2;
   static final int VENDOR_PKCS8=3;
+  static final int VENDOR_OPENSSH_V1=4;
+
+  private static final byte[] AUTH_MAGIC=Util.str2byte("openssh-key-v1\0");
 
   int vendor=VENDOR_OPENSSH;
 
@@ -56,6 +60,7 @@ public abstract class KeyPair{
     KeyPair kpair=null;
     if(type==DSA){ kpair=new KeyPairDSA(jsch); }
     else if(type==RSA){ kpair=new KeyPairRSA(jsch); }
+    else if(type==ED25519){ kpair=new KeyPairEd25519(jsch); }
     if(kpair!=null){
       kpair.generate(key_size);
     }
@@ -71,6 +76,14 @@ public abstract class KeyPair{
   public abstract byte[] getSignature(byte[] data);
   public abstract Signature getVerifier();
 
+  /**
+   * Signs <code>data</code> with the signature algorithm <code>alg</code>,
+   * which only differs from the key type for RSA keys (RFC 8332).
+   */
+  public byte[] getSignature(byte[] data, String alg){
+    return getSignature(data);
+  }
+
   public abstract byte[] forSSHAgent() throws JSchException;
 
   public String getPublicKeyComment(){
@@ -117,6 +130,11 @@ public abstract class KeyPair{
     if(passphrase == null)
       passphrase = this.passphrase;
 
+    if(vendor==VENDOR_OPENSSH_V1){
+      writeOpenSSHV1PrivateKey(out, passphrase);
+      return;
+    }
+
     byte[] plain=getPrivateKey();
     byte[][] _iv=new byte[1][];
     byte[] encoded=encrypt(plain, _iv, passphrase);
@@ -156,6 +174,126 @@ public abstract class KeyPair{
     }
   }
 
+  /*
+   * openssh-key-v1, the format "ssh-keygen" has written by default since
+   * OpenSSH 7.8 and the only one it uses for Ed25519 keys:
+   *   byte[]  "openssh-key-v1\0"
+   *   string  ciphername, "none" or e.g. "aes256-ctr"
+   *   string  kdfname, "none" or "bcrypt"
+   *   string  kdfoptions, for bcrypt: string salt, uint32 rounds
+   *   uint32  number of keys, always 1
+   *   string  public key blob
+   *   string  private section, padded to the cipher block size with
+   *           1, 2, 3, ... and encrypted if ciphername is not "none"
+   */
+  private void writeOpenSSHV1PrivateKey(java.io.OutputStream out, byte[] passphrase){
+    byte[] plain=getPrivateKey();
+    String ciphername="none";
+    String kdfname="none";
+    byte[] kdfoptions=new byte[0];
+    Cipher _cipher=null;
+    int bsize=8;
+
+    try{
+      if(passphrase!=null){
+        ciphername="aes256-ctr";
+        kdfname="bcrypt";
+        _cipher=(Cipher)(Class.forName(jsch.getConfig(ciphername)).newInstance());
+        bsize=_cipher.getIVSize();
+
+        byte[] salt=new byte[16];
+        genRandom().fill(salt, 0, salt.length);
+        Buffer opts=new Buffer(4+salt.length+4);
+        opts.putString(salt);
+        opts.putInt(OPENSSH_V1_ROUNDS);
+        kdfoptions=opts.buffer;
+      }
+
+      byte[] foo=new byte[(plain.length+bsize-1)/bsize*bsize];
+      System.arraycopy(plain, 0, foo, 0, plain.length);
+      for(int i=plain.length; i<foo.length; i++){
+        foo[i]=(byte)(i-plain.length+1);
+      }
+      Util.bzero(plain);
+      plain=foo;
+
+      if(_cipher!=null){
+        byte[] keyiv=bcrypt(passphrase, kdfoptions,
+                            _cipher.getBlockSize()+_cipher.getIVSize());
+        byte[] key=new byte[_cipher.getBlockSize()];
+        byte[] iv=new byte[_cipher.getIVSize()];
+        System.arraycopy(keyiv, 0, key, 0, key.length);
+        System.arraycopy(keyiv, key.length, iv, 0, iv.length);
+        _cipher.init(Cipher.ENCRYPT_MODE, key, iv);
+        _cipher.update(plain, 0, plain.length, plain, 0);
+        Util.bzero(keyiv);
+        Util.bzero(key);
+      }
+
+      byte[] pubblob=getPublicKeyBlob();
+      Buffer buf=new Buffer(AUTH_MAGIC.length+4+ciphername.length()+
+                            4+kdfname.length()+4+kdfoptions.length+4+
+                            4+pubblob.length+4+plain.length);
+      buf.putByte(AUTH_MAGIC);
+      buf.putString(Util.str2byte(ciphername));
+      buf.putString(Util.str2byte(kdfname));
+      buf.putString(kdfoptions);
+      buf.putInt(1);
+      buf.putString(pubblob);
+      buf.putString(plain);
+      Util.bzero(plain);
+
+      byte[] prv=Util.toBase64(buf.buffer, 0, buf.getLength());
+      Util.bzero(buf.buffer);
+      out.write(getBegin()); out.write(cr);
+      for(int i=0; i<prv.length; i+=70){
+        out.write(prv, i, Math.min(70, prv.length-i));
+        out.write(cr);
+      }
+      out.write(getEnd()); out.write(cr);
+    }
+    catch(Exception e){
+    }
+  }
+
+  // the number of bcrypt rounds "ssh-keygen" uses by default
+  private static final int OPENSSH_V1_ROUNDS=16;
+
+  private byte[] kdfoptions;
+
+  private byte[] bcrypt(byte[] passphrase, byte[] kdfoptions, int size) throws Exception{
+    Buffer opts=new Buffer(kdfoptions);
+    byte[] salt=opts.getString();
+    int rounds=opts.getInt();
+    Class c=Class.forName(jsch.getConfig("bcrypt_pbkdf"));
+    PBKDF kdf=(PBKDF)(c.newInstance());
+    byte[] key=kdf.getKey(passphrase, salt, rounds, size);
+    if(key==null){
+      throw new JSchException("bcrypt_pbkdf failed");
+    }
+    return key;
+  }
+
+  private byte[] decryptOpenSSHV1(byte[] data, byte[] passphrase){
+    try{
+      byte[] keyiv=bcrypt(passphrase, kdfoptions,
+                          cipher.getBlockSize()+cipher.getIVSize());
+      byte[] key=new byte[cipher.getBlockSize()];
+      byte[] iv=new byte[cipher.getIVSize()];
+      System.arraycopy(keyiv, 0, key, 0, key.length);
+      System.arraycopy(keyiv, key.length, iv, 0, iv.length);
+      Util.bzero(keyiv);
+      cipher.init(Cipher.DECRYPT_MODE, key, iv);
+      Util.bzero(key);
+      byte[] plain=new byte[data.length];
+      cipher.update(data, 0, data.length, plain, 0);
+      return plain;
+    }
+    catch(Exception e){
+    }
+    return null;
+  }
+
   private static byte[] space=Util.str2byte(" ");
 
   abstract byte[] getKeyTypeName();
@@ -365,7 +503,7 @@ public abstract class KeyPair{
     return j;
   }
 
-  private Random genRandom(){
+  Random genRandom(){
     if(random==null){
       try{
 	Class c=Class.forName(jsch.getConfig("random"));
@@ -498,9 +636,15 @@ public abstract class KeyPair{
     byte[] bar=new byte[_passphrase.length];
     System.arraycopy(_passphrase, 0, bar, 0, bar.length);
     _passphrase=bar;
-    byte[] foo=decrypt(data, _passphrase, iv);
+    byte[] foo;
+    if(vendor==VENDOR_OPENSSH_V1){
+      foo=decryptOpenSSHV1(data, _passphrase);
+    }
+    else{
+      foo=decrypt(data, _passphrase, iv);
+    }
     Util.bzero(_passphrase);
-    if(parse(foo)){
+    if(foo!=null && parse(foo)){
       encrypted=false;
     }
     return !encrypted;
@@ -559,6 +703,7 @@ public abstract class KeyPair{
     int vendor=VENDOR_OPENSSH;
     String publicKeyComment = "";
     Cipher cipher=null;
+    byte[] kdfoptions=null;
 
     // prvkey from "ssh-add" command on the remote.
     if(pubkey==null &&
@@ -578,6 +723,9 @@ public abstract class KeyPair{
       else if(_type.equals("ssh-dss")){
         kpair=KeyPairDSA.fromSSHAgent(jsch, buf);
       }
+      else if(_type.equals("ssh-ed25519")){
+        kpair=KeyPairEd25519.fromSSHAgent(jsch, buf);
+      }
       else{
         throw new JSchException("privatekey: invalid key "+new String(prvkey, 4, 7));
       }
@@ -617,6 +765,14 @@ public abstract class KeyPair{
 	    type=UNKNOWN;
 	    vendor=VENDOR_FSECURE;
 	  }
+	  else if(i+6 < len &&
+                  buf[i]=='O' && buf[i+1]=='P' &&
+                  buf[i+2]=='E' && buf[i+3]=='N' &&
+                  buf[i+4]=='S' && buf[i+5]=='S' && buf[i+6]=='H'){
+	    type=UNKNOWN;
+	    vendor=VENDOR_OPENSSH_V1;
+            i+=4;
+	  }
 	  else if(i+6 < len &&
                   buf[i]=='P' && buf[i+1]=='R' &&
                   buf[i+2]=='I' && buf[i+3]=='V' &&
@@ -794,6 +950,47 @@ public abstract class KeyPair{
 	}
       }
 
+      if(data!=null && vendor==VENDOR_OPENSSH_V1){
+        Buffer _buf=new Buffer(data);
+        byte[] magic=new byte[AUTH_MAGIC.length];
+        _buf.getByte(magic);
+        if(!Util.array_equals(magic, AUTH_MAGIC)){
+          throw new JSchException("invalid privatekey: "+prvkey);
+        }
+        String _cipher=Util.byte2str(_buf.getString());
+        String _kdf=Util.byte2str(_buf.getString());
+        kdfoptions=_buf.getString();
+        if(_buf.getInt()!=1){
+          throw new JSchException("privatekey: only one key per file is supported");
+        }
+        publickeyblob=_buf.getString();
+        data=_buf.getString();
+
+        String _type=Util.byte2str(new Buffer(publickeyblob).getString());
+        if(_type.equals("ssh-ed25519")){ type=ED25519; }
+        else{
+          throw new JSchException("privatekey: "+_type+" in OpenSSH format is not supported");
+        }
+
+        if(_cipher.equals("none")){
+          encrypted=false;
+        }
+        else{
+          if(!_kdf.equals("bcrypt")){
+            throw new JSchException("privatekey: unknown kdf "+_kdf);
+          }
+          if(!Session.checkCipher((String)jsch.getConfig(_cipher))){
+            throw new JSchException("privatekey: "+_cipher+" is not available");
+          }
+          Class c=Class.forName((String)jsch.getConfig(_cipher));
+          cipher=(Cipher)(c.newInstance());
+          if(cipher instanceof AEADCipher){
+            throw new JSchException("privatekey: "+_cipher+" is not supported");
+          }
+          encrypted=true;
+        }
+      }
+
       if(pubkey!=null){
 	try{
 	  buf=pubkey;
@@ -846,6 +1043,7 @@ public abstract class KeyPair{
                  buf.length>7){
 		if(buf[4]=='d'){ type=DSA; }
 		else if(buf[4]=='r'){ type=RSA; }
+		else if(buf[4]=='e'){ type=ED25519; }
               }
 	      i=0;
 	      while(i<len){ if(buf[i]==' ')break; i++;} i++;
@@ -879,6 +1077,7 @@ public abstract class KeyPair{
     KeyPair kpair=null;
     if(type==DSA){ kpair=new KeyPairDSA(jsch); }
     else if(type==RSA){ kpair=new KeyPairRSA(jsch); }
+    else if(type==ED25519){ kpair=new KeyPairEd25519(jsch); }
     else if(vendor==VENDOR_PKCS8){ kpair = new KeyPairPKCS8(jsch); }
 
     if(kpair!=null){
@@ -887,6 +1086,7 @@ public abstract class KeyPair{
       kpair.vendor=vendor;
       kpair.publicKeyComment=publicKeyComment;
       kpair.cipher=cipher;
+      kpair.kdfoptions=kdfoptions;
 
       if(encrypted){
         kpair.encrypted=true;
@@ -317,8 +317,13 @@ public class KeyPairRSA extends KeyPair{
   }
 
   public byte[] getSignature(byte[] data){
+    return getSignature(data, "ssh-rsa");
+  }
+
+  public byte[] getSignature(byte[] data, String alg){
     try{      
-      Class c=Class.forName((String)jsch.getConfig("signature.rsa"));
+      String name=alg.equals("ssh-rsa") ? "signature.rsa" : alg;
+      Class c=Class.forName((String)jsch.getConfig(name));
       SignatureRSA rsa=(SignatureRSA)(c.newInstance());
       rsa.init();
       rsa.setPrvKey(prv_array, n_array);
@@ -326,7 +331,7 @@ public class KeyPairRSA extends KeyPair{
       rsa.update(data);
       byte[] sig = rsa.sign();
       byte[][] tmp = new byte[2][];
-      tmp[0] = sshrsa;
+      tmp[0] = Util.str2byte(alg);
       tmp[1] = sig;
       return Buffer.fromBytes(tmp).buffer;
     }
@@ -153,15 +153,13 @@ loop:
         }
 
         sb.setLength(0);
-	type=-1;
         while(j<bufl){
           i=buf[j++];
           if(i==0x20 || i=='\t'){ break; }
           sb.append((char)i);
 	}
-	if(sb.toString().equals("ssh-dss")){ type=HostKey.SSHDSS; }
-	else if(sb.toString().equals("ssh-rsa")){ type=HostKey.SSHRSA; }
-	else { j=bufl; }
+	type=HostKey.name2type(sb.toString());
+	if(type==HostKey.UNKNOWN){ j=bufl; }
 	if(j>=bufl){
 	  addInvalidLine(Util.byte2str(buf, 0, bufl));
 	  continue loop; 
@@ -461,9 +459,7 @@ loop:
     }
   }
   private int getType(byte[] key){
-    if(key[8]=='d') return HostKey.SSHDSS;
-    if(key[8]=='r') return HostKey.SSHRSA;
-    return HostKey.UNKNOWN;
+    return HostKey.guessType(key);
   }
   private String deleteSubString(String hosts, String host){
     int i=0;
@@ -43,8 +43,16 @@ public class Packet{
     buffer.index=5;
   }
   void padding(int bsize){
+    padding(bsize, false);
+  }
+
+  /*
+   * With an AEAD cipher the length field is left out of the padded
+   * length, since it is processed apart from the rest of the packet.
+   */
+  void padding(int bsize, boolean aead){
     int len=buffer.index;
-    int pad=(-len)&(bsize-1);
+    int pad=(-(aead ? len-4 : len))&(bsize-1);
     if(pad<bsize){
       pad+=bsize;
     }
@@ -0,0 +1,185 @@
+/* -*-mode:java; c-basic-offset:2; indent-tabs-mode:nil -*- */
+/*
+Copyright (c) 2002-2014 ymnk, JCraft,Inc. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+  1. Redistributions of source code must retain the above copyright notice,
+     this list of conditions and the following disclaimer.
+
+  2. Redistributions in binary form must reproduce the above copyright 
+     notice, this list of conditions and the following disclaimer in 
+     the documentation and/or other materials provided with the distribution.
+
+  3. The names of the authors may not be used to endorse or promote products
+     derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL JCRAFT,
+INC. OR ANY CONTRIBUTORS TO THIS SOFTWARE BE LIABLE FOR ANY DIRECT, INDIRECT,
+INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.jcraft.jsch;
+
+import java.io.IOException;
+import java.util.LinkedList;
+
+/**
+ * The encode/send stage of a session.  Threads writing to the session
+ * hand over a copy of their plaintext packet and return at once, and a
+ * single thread compresses, pads, MACs, encrypts and writes the packets
+ * in the order they were queued, which is also their sequence number
+ * order.
+ */
+class PacketSender implements Runnable{
+  private static final int MAX_FREE_BUFFERS=8;
+
+  private Session session;
+  private LinkedList queue=new LinkedList();
+  private LinkedList free=new LinkedList();
+  private int queued_bytes=0;
+  private int max_queued_bytes;
+  private boolean busy=false;
+  private boolean running=true;
+  private Exception error=null;
+
+  PacketSender(Session session, int max_queued_bytes){
+    this.session=session;
+    this.max_queued_bytes=max_queued_bytes;
+  }
+
+  /**
+   * Queues a copy of the given plaintext packet.  Blocks only while
+   * more than <code>max_queued_bytes</code> are waiting to be sent.
+   */
+  void enqueue(Packet packet) throws Exception{
+    int len=packet.buffer.index;
+    synchronized(this){
+      while(running && queued_bytes>0 &&
+            queued_bytes+len>max_queued_bytes){
+        try{ wait(); }
+        catch(InterruptedException e){
+          throw new IOException("interrupted while queueing packet");
+        }
+      }
+      check();
+      Buffer buf=allocate(len);
+      System.arraycopy(packet.buffer.buffer, 0, buf.buffer, 0, len);
+      buf.index=len;
+      queue.addLast(buf);
+      queued_bytes+=len;
+      notifyAll();
+    }
+  }
+
+  /**
+   * Waits until every queued packet has been written.
+   */
+  synchronized void drain() throws Exception{
+    while(running && (busy || !queue.isEmpty())){
+      try{ wait(); }
+      catch(InterruptedException e){
+        throw new IOException("interrupted while draining packets");
+      }
+    }
+    check();
+  }
+
+  /**
+   * Gives queued packets up to <code>timeout</code> milliseconds to
+   * go out, then stops the sender.
+   */
+  synchronized void shutdown(long timeout){
+    long end=System.currentTimeMillis()+timeout;
+    while(running && (busy || !queue.isEmpty())){
+      long t=end-System.currentTimeMillis();
+      if(t<=0) break;
+      try{ wait(t); }
+      catch(InterruptedException e){ break; }
+    }
+    running=false;
+    queue.clear();
+    notifyAll();
+  }
+
+  synchronized int getQueuedBytes(){ return queued_bytes; }
+
+  public void run(){
+    Packet packet=new Packet(null);
+    while(true){
+      Buffer buf;
+      boolean more;
+      synchronized(this){
+        while(running && queue.isEmpty()){
+          try{ wait(); }
+          catch(InterruptedException e){ }
+        }
+        if(!running){
+          break;
+        }
+        buf=(Buffer)queue.removeFirst();
+        queued_bytes-=buf.index;
+        more=!queue.isEmpty();
+        busy=true;
+        notifyAll();
+      }
+      try{
+        packet.buffer=buf;
+        session.writeQueued(packet, more);
+      }
+      catch(Exception e){
+        synchronized(this){
+          error=e;
+          running=false;
+          queue.clear();
+        }
+      }
+      finally{
+        synchronized(this){
+          busy=false;
+          release(buf);
+          notifyAll();
+        }
+      }
+    }
+  }
+
+  private void check() throws Exception{
+    if(error!=null){
+      if(error instanceof IOException)
+        throw (IOException)error;
+      throw new IOException(error.toString());
+    }
+    if(!running){
+      throw new IOException("session is down");
+    }
+  }
+
+  private Buffer allocate(int len){
+    int size=len+Session.buffer_margin;
+    for(int i=0; i<free.size(); i++){
+      Buffer buf=(Buffer)free.get(i);
+      if(buf.buffer.length>=size){
+        free.remove(i);
+        buf.reset();
+        return buf;
+      }
+    }
+    if(size<1024*10*2) size=1024*10*2;
+    return new Buffer(size);
+  }
+
+  private void release(Buffer buf){
+    if(free.size()<MAX_FREE_BUFFERS){
+      free.addLast(buf);
+    }
+  }
+}
@@ -0,0 +1,239 @@
+/* -*-mode:java; c-basic-offset:2; indent-tabs-mode:nil -*- */
+/*
+Copyright (c) 2002-2014 ymnk, JCraft,Inc. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+  1. Redistributions of source code must retain the above copyright notice,
+     this list of conditions and the following disclaimer.
+
+  2. Redistributions in binary form must reproduce the above copyright 
+     notice, this list of conditions and the following disclaimer in 
+     the documentation and/or other materials provided with the distribution.
+
+  3. The names of the authors may not be used to endorse or promote products
+     derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL JCRAFT,
+INC. OR ANY CONTRIBUTORS TO THIS SOFTWARE BE LIABLE FOR ANY DIRECT, INDIRECT,
+INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.jcraft.jsch;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A pipe for channel data between exactly one writer, normally the
+ * session's receiving thread, and one reader at a time.
+ *
+ * The two sides only share the head and tail counters, so neither
+ * takes a lock; a side that has to wait parks itself, and the other
+ * side unparks it once there is something for it to do.  JDK's
+ * PipedInputStream instead polls with wait(1000), checks that the
+ * writing and reading threads are still alive, and so needed the
+ * updateReadSide() workaround whenever another thread took over.
+ *
+ * The buffer starts at <code>size</code> bytes and is grown by the
+ * writer up to <code>max_size</code> instead of blocking.  The new
+ * array is published before the head that refers to it, so a reader
+ * that has seen the head also sees the array.
+ */
+class RingInputStream extends InputStream{
+  private volatile byte[] buffer;
+  private final int max_size;
+
+  private volatile long head=0;   // total bytes written
+  private volatile long tail=0;   // total bytes read
+
+  private volatile boolean eof=false;      // writer closed
+  private volatile boolean closed=false;   // reader closed
+
+  private volatile Thread reader=null;     // parked, waiting for data
+  private volatile Thread writer=null;     // parked, waiting for space
+
+  private final byte[] one_in=new byte[1];
+  private final byte[] one_out=new byte[1];
+
+  private final OutputStream out=new OutputStream(){
+      public void write(int b) throws IOException{
+        one_out[0]=(byte)b;
+        put(one_out, 0, 1);
+      }
+      public void write(byte[] b, int off, int len) throws IOException{
+        put(b, off, len);
+      }
+      public void close() throws IOException{
+        eof=true;
+        wake(reader);
+      }
+    };
+
+  RingInputStream(int size, int max_size){
+    buffer=new byte[size];
+    this.max_size=Math.max(size, max_size);
+  }
+
+  /**
+   * Returns the writing end of this pipe.
+   */
+  OutputStream getOutputStream(){
+    return out;
+  }
+
+  private void put(byte[] b, int off, int len) throws IOException{
+    while(len>0){
+      if(closed || eof){
+        throw new IOException("Pipe closed");
+      }
+      byte[] _buffer=buffer;
+      int free=_buffer.length-(int)(head-tail);
+      if(free<len && _buffer.length<max_size){
+        _buffer=grow(_buffer, len-free);
+        free=_buffer.length-(int)(head-tail);
+      }
+      if(free==0){
+        writer=Thread.currentThread();
+        if(buffer.length-(int)(head-tail)==0 && !closed){
+          LockSupport.park(this);
+        }
+        writer=null;
+        if(Thread.interrupted()){
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException();
+        }
+        continue;
+      }
+      int n=Math.min(len, free);
+      copy(b, off, _buffer, head, n);
+      head+=n;
+      wake(reader);
+      off+=n;
+      len-=n;
+    }
+  }
+
+  /*
+   * Moves the unread bytes into a larger array, at their positions
+   * under the new length, and only then publishes it.
+   */
+  private byte[] grow(byte[] old, int more){
+    int size=old.length;
+    while(size-old.length<more && size<max_size){
+      size=(int)Math.min((long)size*2, max_size);
+    }
+    byte[] tmp=new byte[size];
+    long _tail=tail;
+    int used=(int)(head-_tail);
+    for(int i=0; i<used; ){
+      int from=(int)((_tail+i)%old.length);
+      int to=(int)((_tail+i)%size);
+      int n=Math.min(used-i, Math.min(old.length-from, size-to));
+      System.arraycopy(old, from, tmp, to, n);
+      i+=n;
+    }
+    buffer=tmp;
+    return tmp;
+  }
+
+  private static void copy(byte[] src, int off, byte[] ring, long pos, int len){
+    int i=(int)(pos%ring.length);
+    int n=Math.min(len, ring.length-i);
+    System.arraycopy(src, off, ring, i, n);
+    if(n<len){
+      System.arraycopy(src, off+n, ring, 0, len-n);
+    }
+  }
+
+  public int read() throws IOException{
+    int i=read(one_in, 0, 1);
+    return (i<=0) ? -1 : (one_in[0]&0xff);
+  }
+
+  public int read(byte[] b, int off, int len) throws IOException{
+    if(len==0){
+      return 0;
+    }
+    int avail;
+    while((avail=(int)(head-tail))==0){
+      if(closed){
+        throw new IOException("Pipe closed");
+      }
+      if(eof){
+        // the writer may have put its last bytes in just before closing
+        if(head==tail) return -1;
+        continue;
+      }
+      reader=Thread.currentThread();
+      if(head==tail && !eof && !closed){
+        LockSupport.park(this);
+      }
+      reader=null;
+      if(Thread.interrupted()){
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException();
+      }
+    }
+    // read the buffer after the head, see the class comment
+    byte[] _buffer=buffer;
+    int n=Math.min(len, avail);
+    long _tail=tail;
+    int i=(int)(_tail%_buffer.length);
+    int m=Math.min(n, _buffer.length-i);
+    System.arraycopy(_buffer, i, b, off, m);
+    if(m<n){
+      System.arraycopy(_buffer, 0, b, off+m, n-m);
+    }
+    tail=_tail+n;
+    // a writer only waits on a full buffer; letting it go on once half
+    // of it is free saves a thread switch per read in bulk transfers.
+    // The reader always drains to empty before it waits itself, so the
+    // writer cannot be left parked behind a waiting reader.
+    Thread _writer=writer;
+    if(_writer!=null && head-tail<=_buffer.length/2){
+      wake(_writer);
+    }
+    return n;
+  }
+
+  public long skip(long n) throws IOException{
+    long skipped=0;
+    byte[] foo=new byte[(int)Math.min(n, 4096)];
+    while(skipped<n && available()>0){
+      int i=read(foo, 0, (int)Math.min(n-skipped, foo.length));
+      if(i<=0) break;
+      skipped+=i;
+    }
+    return skipped;
+  }
+
+  public int available() throws IOException{
+    if(closed){
+      throw new IOException("Pipe closed");
+    }
+    return (int)(head-tail);
+  }
+
+  public void close() throws IOException{
+    closed=true;
+    wake(writer);
+  }
+
+  private static void wake(Thread t){
+    if(t!=null){
+      LockSupport.unpark(t);
+    }
+  }
+}
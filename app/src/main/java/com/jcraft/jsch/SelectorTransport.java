@@ -0,0 +1,442 @@
+/* -*-mode:java; c-basic-offset:2; indent-tabs-mode:nil -*- */
+/*
+Copyright (c) 2002-2014 ymnk, JCraft,Inc. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+  1. Redistributions of source code must retain the above copyright notice,
+     this list of conditions and the following disclaimer.
+
+  2. Redistributions in binary form must reproduce the above copyright 
+     notice, this list of conditions and the following disclaimer in 
+     the documentation and/or other materials provided with the distribution.
+
+  3. The names of the authors may not be used to endorse or promote products
+     derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL JCRAFT,
+INC. OR ANY CONTRIBUTORS TO THIS SOFTWARE BE LIABLE FOR ANY DIRECT, INDIRECT,
+INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.jcraft.jsch;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Vector;
+
+/**
+ * A non-blocking transport shared by every session that enables it with
+ * the "transport" config set to "nio".  One selector thread watches all
+ * the sockets.  A session that has no input pending between two packets
+ * parks itself here instead of blocking a thread, and is run again on a
+ * pooled worker thread as soon as its socket becomes readable or its
+ * keep-alive interval expires.  Within a packet the streams behave like
+ * ordinary blocking socket streams, honouring the socket's SO_TIMEOUT.
+ */
+class SelectorTransport implements Runnable{
+  private static SelectorTransport instance=null;
+
+  static synchronized SelectorTransport getDefault() throws IOException{
+    if(instance==null){
+      instance=new SelectorTransport();
+    }
+    return instance;
+  }
+
+  private static final long WORKER_IDLE_TIME=60*1000L;
+
+  private Selector selector;
+  private Thread thread;
+  private LinkedList pending=new LinkedList();   // connections to (re)register
+  private Vector connections=new Vector();
+
+  private LinkedList idle_workers=new LinkedList();
+  private int workers=0;
+
+  private SelectorTransport() throws IOException{
+    selector=Selector.open();
+    thread=new Thread(this);
+    thread.setName("JSch selector");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  Connection connect(String host, int port, int timeout,
+                     ConnectTrace trace) throws JSchException{
+    SocketChannel channel=Util.createSocketChannel(host, port, timeout, trace);
+    try{
+      channel.configureBlocking(false);
+      Connection c=new Connection(channel);
+      connections.addElement(c);
+      update(c);
+      return c;
+    }
+    catch(Exception e){
+      try{ channel.close(); }
+      catch(IOException ee){}
+      throw new JSchException(e.toString(), e);
+    }
+  }
+
+  int getConnectionCount(){ return connections.size(); }
+  synchronized int getWorkerCount(){ return workers; }
+
+  /**
+   * Runs <code>task</code> on a pooled worker thread.
+   */
+  void execute(Runnable task){
+    Worker w=null;
+    synchronized(this){
+      if(!idle_workers.isEmpty()){
+        w=(Worker)idle_workers.removeFirst();
+        w.task=task;
+        notifyAll();
+        return;
+      }
+      workers++;
+    }
+    w=new Worker(task);
+    Thread t=new Thread(w);
+    t.setName("JSch session worker");
+    t.setDaemon(true);
+    t.start();
+  }
+
+  private class Worker implements Runnable{
+    Runnable task;
+    Worker(Runnable task){ this.task=task; }
+    public void run(){
+      Runnable r=task;
+      while(r!=null){
+        try{ r.run(); }
+        catch(Throwable e){ }
+        synchronized(SelectorTransport.this){
+          task=null;
+          idle_workers.addLast(this);
+          long end=System.currentTimeMillis()+WORKER_IDLE_TIME;
+          while(task==null){
+            long t=end-System.currentTimeMillis();
+            if(t<=0) break;
+            try{ SelectorTransport.this.wait(t); }
+            catch(InterruptedException e){ }
+          }
+          r=task;
+          if(r==null){
+            idle_workers.remove(this);
+            workers--;
+          }
+        }
+      }
+    }
+  }
+
+  private void update(Connection c){
+    synchronized(pending){
+      if(!pending.contains(c)){
+        pending.addLast(c);
+      }
+    }
+    selector.wakeup();
+  }
+
+  public void run(){
+    while(true){
+      try{
+        applyPending();
+        long timeout=0L;
+        long now=System.currentTimeMillis();
+        for(int i=0; i<connections.size(); i++){
+          Connection c=(Connection)connections.elementAt(i);
+          long t=c.getDeadline();
+          if(t==0L) continue;
+          if(t<=now){
+            c.expire();
+            continue;
+          }
+          if(timeout==0L || t-now<timeout){
+            timeout=t-now;
+          }
+        }
+        selector.select(timeout);
+        Iterator it=selector.selectedKeys().iterator();
+        while(it.hasNext()){
+          SelectionKey key=(SelectionKey)it.next();
+          it.remove();
+          Connection c=(Connection)key.attachment();
+          if(!key.isValid()){
+            continue;
+          }
+          c.ready(key.readyOps());
+          key.interestOps(c.getInterestOps());
+        }
+      }
+      catch(Exception e){
+        if(JSch.getLogger().isEnabled(Logger.WARN)){
+          JSch.getLogger().log(Logger.WARN,
+                               "selector: "+e.toString());
+        }
+      }
+    }
+  }
+
+  private void applyPending(){
+    while(true){
+      Connection c;
+      synchronized(pending){
+        if(pending.isEmpty()) return;
+        c=(Connection)pending.removeFirst();
+      }
+      if(c.isClosed()){
+        connections.removeElement(c);
+        if(c.key!=null) c.key.cancel();
+        continue;
+      }
+      try{
+        if(c.key==null){
+          c.key=c.channel.register(selector, c.getInterestOps(), c);
+        }
+        else if(c.key.isValid()){
+          c.key.interestOps(c.getInterestOps());
+        }
+      }
+      catch(ClosedChannelException e){
+        c.close();
+        connections.removeElement(c);
+      }
+    }
+  }
+
+  /**
+   * The transport state of one session.
+   */
+  class Connection{
+    SocketChannel channel;
+    SelectionKey key=null;
+
+    private ByteBuffer inbuf=ByteBuffer.allocate(16*1024);
+    private boolean read_waiting=false;
+    private boolean write_waiting=false;
+    private Runnable parked=null;
+    private long deadline=0L;
+    private boolean timed_out=false;
+    private boolean closed=false;
+
+    private InputStream in=new InputStream(){
+        private byte[] b=new byte[1];
+        public int read() throws IOException{
+          if(read(b, 0, 1)<0) return -1;
+          return b[0]&0xff;
+        }
+        public int read(byte[] b, int off, int len) throws IOException{
+          if(len==0) return 0;
+          while(true){
+            if(inbuf.hasRemaining()){
+              if(len>inbuf.remaining()) len=inbuf.remaining();
+              inbuf.get(b, off, len);
+              return len;
+            }
+            int n=fill();
+            if(n<0) return -1;
+            if(n==0) await(SelectionKey.OP_READ);
+          }
+        }
+        public int available() throws IOException{
+          return inbuf.remaining();
+        }
+        public void close() throws IOException{
+          Connection.this.close();
+        }
+      };
+
+    private OutputStream out=new OutputStream(){
+        private byte[] b=new byte[1];
+        public void write(int w) throws IOException{
+          b[0]=(byte)w;
+          write(b, 0, 1);
+        }
+        public void write(byte[] b, int off, int len) throws IOException{
+          ByteBuffer bb=ByteBuffer.wrap(b, off, len);
+          while(bb.hasRemaining()){
+            if(channel.write(bb)==0){
+              await(SelectionKey.OP_WRITE);
+            }
+          }
+        }
+        public void close() throws IOException{
+          Connection.this.close();
+        }
+      };
+
+    Connection(SocketChannel channel){
+      this.channel=channel;
+      inbuf.limit(0);
+    }
+
+    Socket getSocket(){ return channel.socket(); }
+    InputStream getInputStream(){ return in; }
+    OutputStream getOutputStream(){ return out; }
+
+    private int fill() throws IOException{
+      inbuf.clear();
+      int n;
+      try{
+        n=channel.read(inbuf);
+      }
+      finally{
+        inbuf.flip();
+      }
+      return n;
+    }
+
+    /**
+     * Returns <code>true</code> if input is buffered or can be read
+     * from the socket without blocking.
+     */
+    boolean hasInput() throws IOException{
+      if(inbuf.hasRemaining()) return true;
+      int n=fill();
+      if(n<0) throw new IOException("End of IO Stream Read");
+      return n>0;
+    }
+
+    /**
+     * Hands <code>task</code> back to the transport, which will run it
+     * again when input arrives or the socket's SO_TIMEOUT expires.
+     * Returns <code>false</code> if the connection has been closed.
+     */
+    boolean park(Runnable task) throws IOException{
+      int timeout=channel.socket().getSoTimeout();
+      synchronized(this){
+        if(closed) return false;
+        parked=task;
+        deadline=timeout>0 ? System.currentTimeMillis()+timeout : 0L;
+      }
+      update(this);
+      return true;
+    }
+
+    /**
+     * Returns <code>true</code> once after the session was woken up by
+     * its keep-alive deadline rather than by input.
+     */
+    synchronized boolean checkTimeout(){
+      boolean t=timed_out;
+      timed_out=false;
+      return t;
+    }
+
+    private void await(int op) throws IOException{
+      int timeout=channel.socket().getSoTimeout();
+      long end=System.currentTimeMillis()+timeout;
+      synchronized(this){
+        if(op==SelectionKey.OP_READ) read_waiting=true;
+        else write_waiting=true;
+      }
+      update(this);
+      synchronized(this){
+        try{
+          while(!closed &&
+                (op==SelectionKey.OP_READ ? read_waiting : write_waiting)){
+            long t=0L;
+            if(timeout>0){
+              t=end-System.currentTimeMillis();
+              if(t<=0){
+                throw new SocketTimeoutException("Read timed out");
+              }
+            }
+            try{ wait(t); }
+            catch(InterruptedException e){
+              throw new java.io.InterruptedIOException(e.toString());
+            }
+          }
+        }
+        finally{
+          if(op==SelectionKey.OP_READ) read_waiting=false;
+          else write_waiting=false;
+        }
+        if(closed){
+          throw new IOException("connection is closed");
+        }
+      }
+    }
+
+    synchronized int getInterestOps(){
+      int ops=0;
+      if(read_waiting || parked!=null) ops|=SelectionKey.OP_READ;
+      if(write_waiting) ops|=SelectionKey.OP_WRITE;
+      return ops;
+    }
+
+    synchronized long getDeadline(){
+      return parked!=null ? deadline : 0L;
+    }
+
+    void ready(int ops){
+      Runnable task=null;
+      synchronized(this){
+        if((ops&SelectionKey.OP_WRITE)!=0){
+          write_waiting=false;
+        }
+        if((ops&SelectionKey.OP_READ)!=0){
+          if(read_waiting){
+            read_waiting=false;
+          }
+          else if(parked!=null){
+            task=parked;
+            parked=null;
+          }
+        }
+        notifyAll();
+      }
+      if(task!=null){
+        execute(task);
+      }
+    }
+
+    void expire(){
+      Runnable task;
+      synchronized(this){
+        task=parked;
+        parked=null;
+        timed_out=true;
+      }
+      if(task!=null){
+        execute(task);
+      }
+      update(this);
+    }
+
+    synchronized boolean isClosed(){ return closed; }
+
+    void close(){
+      synchronized(this){
+        if(closed) return;
+        closed=true;
+        parked=null;
+        notifyAll();
+      }
+      try{ channel.close(); }
+      catch(IOException e){}
+      update(this);
+    }
+  }
+}
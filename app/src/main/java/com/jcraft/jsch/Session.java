@@ -40,6 +40,7 @@ public class Session implements Runnable{
   static final int SSH_MSG_IGNORE=                          2;
   static final int SSH_MSG_UNIMPLEMENTED=                   3;
   static final int SSH_MSG_DEBUG=                           4;
+  static final int SSH_MSG_EXT_INFO=                        7;
   static final int SSH_MSG_SERVICE_REQUEST=                 5;
   static final int SSH_MSG_SERVICE_ACCEPT=                  6;
   static final int SSH_MSG_KEXINIT=                        20;
@@ -91,6 +92,10 @@ public class Session implements Runnable{
   private Cipher c2scipher;
   private MAC s2cmac;
   private MAC c2smac;
+  private AEADCipher s2caead;  // s2ccipher if it authenticates by itself
+  private AEADCipher c2saead;
+  private boolean s2cetm=false;  // the MAC is computed over the ciphertext
+  private boolean c2setm=false;
   //private byte[] mac_buf;
   private byte[] s2cmac_result1;
   private byte[] s2cmac_result2;
@@ -100,6 +105,7 @@ public class Session implements Runnable{
 
   private IO io;
   private Socket socket;
+  private volatile SelectorTransport.Connection nio=null;  // with "transport" "nio"
   private int timeout=0;
 
   private volatile boolean isConnected=false;
@@ -108,6 +114,7 @@ public class Session implements Runnable{
 
   private Thread connectThread=null;
   private Object lock=new Object();
+  private volatile PacketSender sender=null;
 
   boolean x11_forwarding=false;
   boolean agent_forwarding=false;
@@ -145,6 +152,11 @@ public class Session implements Runnable{
   int max_auth_tries = 6;
   int auth_failures = 0;
 
+  private ConnectTrace trace=null;
+  private String server_sig_algs=null;  // from SSH_MSG_EXT_INFO, RFC 8308
+  private String auth_methods=null;     // methods that succeeded, in order
+  private String auth_smethods=null;    // methods the server advertised
+
   String host="127.0.0.1";
   String org_host="127.0.0.1";
   int port=22;
@@ -189,6 +201,7 @@ public class Session implements Runnable{
     }
 
     io=new IO();
+    trace=new ConnectTrace();
     if(random==null){
       try{
 	Class c=Class.forName(getConfig("random"));
@@ -211,8 +224,15 @@ public class Session implements Runnable{
       if(proxy==null){
         InputStream in;
         OutputStream out;
-	if(socket_factory==null){
-          socket=Util.createSocket(host, port, connectTimeout);
+	if(socket_factory==null && "nio".equals(getConfig("transport"))){
+          nio=SelectorTransport.getDefault().connect(host, port, connectTimeout,
+                                                     trace);
+          socket=nio.getSocket();
+          in=nio.getInputStream();
+          out=nio.getOutputStream();
+	}
+	else if(socket_factory==null){
+          socket=Util.createSocket(host, port, connectTimeout, trace);
 	  in=socket.getInputStream();
 	  out=socket.getOutputStream();
 	}
@@ -220,19 +240,21 @@ public class Session implements Runnable{
           socket=socket_factory.createSocket(host, port);
 	  in=socket_factory.getInputStream(socket);
 	  out=socket_factory.getOutputStream(socket);
+          trace.mark("connect");
 	}
 	//if(timeout>0){ socket.setSoTimeout(timeout); }
         socket.setTcpNoDelay(true);
         io.setInputStream(in);
-        io.setOutputStream(out);
+        io.setOutputStream(batchedOutputStream(out));
       }
       else{
 	synchronized(proxy){
           proxy.connect(socket_factory, host, port, connectTimeout);
 	  io.setInputStream(proxy.getInputStream());
-	  io.setOutputStream(proxy.getOutputStream());
+	  io.setOutputStream(batchedOutputStream(proxy.getOutputStream()));
           socket=proxy.getSocket();
 	}
+        trace.mark("proxy connect");
       }
 
       if(connectTimeout>0 && socket!=null){
@@ -248,12 +270,22 @@ public class Session implements Runnable{
 
       jsch.addSession(this);
 
+      // RFC 4253 lets the client send its KEXINIT right after its
+      // version string, without waiting for the server's.  Both then
+      // leave in one write, and the server's version string and
+      // KEXINIT come back in the same round trip.
+      boolean pipeline="yes".equals(getConfig("pipeline_kexinit"));
+
       {
 	// Some Cisco devices will miss to read '\n' if it is sent separately.
 	byte[] foo=new byte[V_C.length+1];
 	System.arraycopy(V_C, 0, foo, 0, V_C.length);
 	foo[foo.length-1]=(byte)'\n';
-	io.put(foo, 0, foo.length);
+	io.put(foo, 0, foo.length, !pipeline);
+      }
+
+      if(pipeline){
+        send_kexinit();
       }
 
       while(true){
@@ -296,6 +328,7 @@ public class Session implements Runnable{
 
       V_S=new byte[i]; System.arraycopy(buf.buffer, 0, V_S, 0, i);
       //System.err.println("V_S: ("+i+") ["+new String(V_S)+"]");
+      trace.mark("banner");
 
       if(JSch.getLogger().isEnabled(Logger.INFO)){
         JSch.getLogger().log(Logger.INFO, 
@@ -304,13 +337,16 @@ public class Session implements Runnable{
                              "Local version string: "+Util.byte2str(V_C));
       }
 
-      send_kexinit();
+      if(!pipeline){
+        send_kexinit();
+      }
 
       buf=read(buf);
       if(buf.getCommand()!=SSH_MSG_KEXINIT){
-        in_kex=false;
+        kexDone();
 	throw new JSchException("invalid protocol: "+buf.getCommand());
       }
+      trace.mark("kexinit");
 
       if(JSch.getLogger().isEnabled(Logger.INFO)){
         JSch.getLogger().log(Logger.INFO, 
@@ -318,20 +354,23 @@ public class Session implements Runnable{
       }
 
       KeyExchange kex=receive_kexinit(buf);
+      trace.mark("kex init");
 
       while(true){
 	buf=read(buf);
+        trace.mark("kex reply");
 	if(kex.getState()==buf.getCommand()){
           kex_start_time=System.currentTimeMillis();
           boolean result=kex.next(buf);
+          trace.mark("kex compute");
 	  if(!result){
 	    //System.err.println("verify: "+result);
-            in_kex=false;
+            kexDone();
 	    throw new JSchException("verify: "+result);
 	  }
 	}
 	else{
-          in_kex=false;
+          kexDone();
 	  throw new JSchException("invalid protocol(kex): "+buf.getCommand());
 	}
 	if(kex.getState()==KeyExchange.STATE_END){
@@ -341,9 +380,10 @@ public class Session implements Runnable{
 
       try{ checkHost(host, port, kex); }
       catch(JSchException ee){
-        in_kex=false;
+        kexDone();
         throw ee;
       }
+      trace.mark("host key");
 
       send_newkeys();
 
@@ -360,9 +400,10 @@ public class Session implements Runnable{
 	receive_newkeys(buf, kex);
       }
       else{
-        in_kex=false;
+        kexDone();
 	throw new JSchException("invalid protocol(newkyes): "+buf.getCommand());
       }
+      trace.mark("newkeys");
 
       try{
         String s = getConfig("MaxAuthTries");
@@ -386,15 +427,23 @@ public class Session implements Runnable{
         throw new JSchException(e.toString(), e);
       }
 
+      UserAuthNone uanone=(UserAuthNone)ua;
       auth=ua.start(this);
+      auth_methods=auth?"none":null;
+      trace.mark("auth none");
 
       String cmethods=getConfig("PreferredAuthentications");
 
       String[] cmethoda=Util.split(cmethods, ",");
 
+      // if the server methods were supplied from a cache rather than
+      // probed, they may be stale; probe once if they all fail.
+      String known=getConfig("ServerAuthentications");
+      boolean unprobed=(known!=null && known.length()>0);
+
       String smethods=null;
       if(!auth){
-        smethods=((UserAuthNone)ua).getMethods();
+        smethods=uanone.getMethods();
         if(smethods!=null){
           smethods=smethods.toLowerCase();
         }
@@ -404,6 +453,7 @@ public class Session implements Runnable{
           smethods=cmethods;
         }
       }
+      auth_smethods=smethods;
 
       String[] smethoda=Util.split(smethods, ",");
 
@@ -461,16 +511,20 @@ public class Session implements Runnable{
             auth_cancel=false;
 	    try{ 
 	      auth=ua.start(this); 
-              if(auth && 
-                 JSch.getLogger().isEnabled(Logger.INFO)){
-                JSch.getLogger().log(Logger.INFO, 
-                                     "Authentication succeeded ("+method+").");
+              if(auth){
+                addAuthMethod(method);
+                if(JSch.getLogger().isEnabled(Logger.INFO)){
+                  JSch.getLogger().log(Logger.INFO, 
+                                       "Authentication succeeded ("+method+").");
+                }
               }
 	    }
 	    catch(JSchAuthCancelException ee){
 	      auth_cancel=true;
 	    }
 	    catch(JSchPartialAuthException ee){
+              addAuthMethod(method);
+              unprobed=false;
               String tmp = smethods;
               smethods=ee.getMethods();
               smethoda=Util.split(smethods, ",");
@@ -495,8 +549,47 @@ public class Session implements Runnable{
               }
               break loop;
 	    }
+            finally{
+              trace.mark("auth "+method);
+            }
 	  }
 	}
+
+        if(!auth && !auth_cancel && unprobed){
+          unprobed=false;
+          boolean ok=uanone.probe(this);
+          trace.mark("auth none");
+          if(ok){
+            addAuthMethod("none");
+            auth=true;
+            break;
+          }
+          String tmp=uanone.getMethods();
+          if(tmp!=null){
+            tmp=tmp.toLowerCase();
+            auth_smethods=tmp;
+            // only try what the cache did not already offer
+            String[] fresh=Util.split(tmp, ",");
+            Vector v=new Vector();
+            for(int k=0; k<fresh.length; k++){
+              boolean tried=false;
+              for(int m=0; m<smethoda.length; m++){
+                if(smethoda[m].equals(fresh[k])){
+                  tried=true;
+                  break;
+                }
+              }
+              if(!tried)
+                v.addElement(fresh[k]);
+            }
+            if(v.size()>0){
+              smethoda=new String[v.size()];
+              v.copyInto(smethoda);
+              methodi=0;
+              continue loop;
+            }
+          }
+        }
         break;
       }
 
@@ -517,15 +610,25 @@ public class Session implements Runnable{
       }
 
       isAuthed=true;
+      trace.end();
 
       synchronized(lock){
         if(isConnected){
-          connectThread=new Thread(this);
-          connectThread.setName("Connect thread "+host+" session");
-          if(daemon_thread){
-            connectThread.setDaemon(daemon_thread);
+          try{ window_max=Integer.parseInt(getConfig("max_window_size")); }
+          catch(Exception e){}
+          startPacketSender();
+
+          if(nio!=null){
+            SelectorTransport.getDefault().execute(this);
+          }
+          else{
+            connectThread=new Thread(this);
+            connectThread.setName("Connect thread "+host+" session");
+            if(daemon_thread){
+              connectThread.setDaemon(daemon_thread);
+            }
+            connectThread.start();
           }
-          connectThread.start();
 
           requestPortForwarding();
         }
@@ -536,7 +639,7 @@ public class Session implements Runnable{
       }
     }
     catch(Exception e) {
-      in_kex=false;
+      kexDone();
       try{
         if(isConnected){
           String message = e.toString();
@@ -602,7 +705,8 @@ public class Session implements Runnable{
     return kex;
   }
 
-  private boolean in_kex=false;
+  private volatile boolean in_kex=false;
+  private final Object kex_lock=new Object();
   public void rekey() throws Exception {
     send_kexinit();
   }
@@ -631,8 +735,25 @@ public class Session implements Runnable{
       }
     }
 
+    String server_host_key=getConfig("server_host_key");
+    String[] not_available_shks=checkSignatures(getConfig("CheckSignatures"));
+    if(not_available_shks!=null && not_available_shks.length>0){
+      server_host_key=Util.diffString(server_host_key, not_available_shks);
+      if(server_host_key==null){
+        throw new JSchException("There are not any available sig algorithm.");
+      }
+    }
+    server_host_key=preferKnownHostKeyTypes(server_host_key);
+
+    // ask for SSH_MSG_EXT_INFO, so that we learn server-sig-algs
+    // before user authentication; only valid in the first exchange.
+    if(session_id==null){
+      kex=kex+",ext-info-c";
+    }
+
     in_kex=true;
     kex_start_time=System.currentTimeMillis();
+    kex_begin=System.nanoTime();
 
     // byte      SSH_MSG_KEXINIT(20)
     // byte[16]  cookie (random bytes)
@@ -654,7 +775,7 @@ public class Session implements Runnable{
       random.fill(buf.buffer, buf.index, 16); buf.skip(16);
     }
     buf.putString(Util.str2byte(kex));
-    buf.putString(Util.str2byte(getConfig("server_host_key")));
+    buf.putString(Util.str2byte(server_host_key));
     buf.putString(Util.str2byte(cipherc2s));
     buf.putString(Util.str2byte(ciphers2c));
     buf.putString(Util.str2byte(getConfig("mac.c2s")));
@@ -759,7 +880,7 @@ key_fprint+".\n"+
 
       synchronized(hkr){
         hkr.remove(chost, 
-                   (key_type.equals("DSA") ? "ssh-dss" : "ssh-rsa"), 
+                   kex.getKeyAlgorithName(), 
                    null);
         insert=true;
       }
@@ -798,7 +919,7 @@ key_type+" key fingerprint is "+key_fprint+".\n"+
     if(i==HostKeyRepository.OK){
       HostKey[] keys =
         hkr.getHostKey(chost,
-                       (key_type.equals("DSA") ? "ssh-dss" : "ssh-rsa"));
+                       kex.getKeyAlgorithName());
       String _key= Util.byte2str(Util.toBase64(K_S, 0, K_S.length));
       for(int j=0; j< keys.length; j++){
         if(keys[i].getKey().equals(_key) &&
@@ -865,36 +986,77 @@ key_type+" key fingerprint is "+key_fprint+".\n"+
 //if(packet.buffer.getCommand()==96){
 //Thread.dumpStack();
 //}
+    long t0=System.nanoTime(), t1;
     if(deflater!=null){
       compress_len[0]=packet.buffer.index;
       packet.buffer.buffer=deflater.compress(packet.buffer.buffer, 
                                              5, compress_len);
       packet.buffer.index=compress_len[0];
+      t1=System.nanoTime();
+      tx_compression_time+=t1-t0;
+      t0=t1;
     }
-    if(c2scipher!=null){
-      //packet.padding(c2scipher.getIVSize());
-      packet.padding(c2scipher_size);
+    if(c2saead!=null){
+      packet.padding(c2scipher_size, true);
       int pad=packet.buffer.buffer[4];
       synchronized(random){
-	random.fill(packet.buffer.buffer, packet.buffer.index-pad, pad);
+        random.fill(packet.buffer.buffer, packet.buffer.index-pad, pad);
+      }
+      c2saead.seal(seqo, packet.buffer.buffer, 0, packet.buffer.index);
+      tx_cipher_time+=System.nanoTime()-t0;
+      packet.buffer.skip(c2saead.getTagSize());
+    }
+    else if(c2setm){
+      packet.padding(c2scipher!=null ? c2scipher_size : 8, true);
+      if(c2scipher!=null){
+        int pad=packet.buffer.buffer[4];
+        synchronized(random){
+          random.fill(packet.buffer.buffer, packet.buffer.index-pad, pad);
+        }
+        byte[] buf=packet.buffer.buffer;
+        c2scipher.update(buf, 4, packet.buffer.index-4, buf, 4);
+        t1=System.nanoTime();
+        tx_cipher_time+=t1-t0;
+        t0=t1;
       }
-    }
-    else{
-      packet.padding(8);
-    }
-
-    if(c2smac!=null){
       c2smac.update(seqo);
       c2smac.update(packet.buffer.buffer, 0, packet.buffer.index);
       c2smac.doFinal(packet.buffer.buffer, packet.buffer.index);
-    }
-    if(c2scipher!=null){
-      byte[] buf=packet.buffer.buffer;
-      c2scipher.update(buf, 0, packet.buffer.index, buf, 0);
-    }
-    if(c2smac!=null){
+      tx_mac_time+=System.nanoTime()-t0;
       packet.buffer.skip(c2smac.getBlockSize());
     }
+    else{
+      if(c2scipher!=null){
+        //packet.padding(c2scipher.getIVSize());
+        packet.padding(c2scipher_size);
+        int pad=packet.buffer.buffer[4];
+        synchronized(random){
+          random.fill(packet.buffer.buffer, packet.buffer.index-pad, pad);
+        }
+      }
+      else{
+        packet.padding(8);
+      }
+
+      if(c2smac!=null){
+        c2smac.update(seqo);
+        c2smac.update(packet.buffer.buffer, 0, packet.buffer.index);
+        c2smac.doFinal(packet.buffer.buffer, packet.buffer.index);
+        t1=System.nanoTime();
+        tx_mac_time+=t1-t0;
+        t0=t1;
+      }
+      if(c2scipher!=null){
+        byte[] buf=packet.buffer.buffer;
+        c2scipher.update(buf, 0, packet.buffer.index, buf, 0);
+        tx_cipher_time+=System.nanoTime()-t0;
+      }
+      if(c2smac!=null){
+        packet.buffer.skip(c2smac.getBlockSize());
+      }
+    }
+    tx_packets++;
+    tx_bytes+=packet.buffer.index;
   }
 
   int[] uncompress_len=new int[1];
@@ -902,71 +1064,201 @@ key_type+" key fingerprint is "+key_fprint+".\n"+
 
   private int s2ccipher_size=8;
   private int c2scipher_size=8;
+
+  /*
+   * The receive buffers only ever grow, so once the largest packet the peer
+   * is going to send has been seen, read() decrypts, verifies and inflates
+   * in place without allocating.  These counters make that observable.
+   */
+  private int rx_buffer_size=1024*10*2;
+  private volatile long rx_buffer_allocs=0;
+  private volatile long rx_buffer_alloc_bytes=0;
+  private volatile long rx_packets=0;
+
+  private void growReceiveBuffer(Buffer buf, int size){
+    int n=buf.buffer.length*2;
+    if(n<size) n=size;
+    if(n<rx_buffer_size) n=rx_buffer_size;
+    if(n>PACKET_MAX_SIZE+buffer_margin && size<=PACKET_MAX_SIZE+buffer_margin){
+      n=PACKET_MAX_SIZE+buffer_margin;
+    }
+    byte[] foo=new byte[n];
+    System.arraycopy(buf.buffer, 0, foo, 0, buf.index);
+    buf.buffer=foo;
+    receiveBufferAllocated(n);
+  }
+
+  private void receiveBufferAllocated(int size){
+    rx_buffer_allocs++;
+    rx_buffer_alloc_bytes+=size;
+    if(rx_buffer_size<size){
+      rx_buffer_size=size;
+    }
+  }
+
+  /**
+   * Returns the number of times a receive buffer had to be allocated or
+   * enlarged, including arrays handed back by the inflater.
+   * It stays constant once the connection has reached a steady state.
+   */
+  public long getReceiveBufferAllocations(){ return rx_buffer_allocs; }
+
+  /**
+   * Returns the total size, in bytes, of all the receive buffers allocated.
+   *
+   * @see #getReceiveBufferAllocations()
+   */
+  public long getReceiveBufferAllocatedBytes(){ return rx_buffer_alloc_bytes; }
+
+  /**
+   * Returns the number of packets received and verified on this session.
+   */
+  public long getReceivedPacketCount(){ return rx_packets; }
+
+  /*
+   * Transport counters.  Each of them has a single writer, encode() under
+   * the write lock or read() on the receiving thread, so plain volatile
+   * increments are enough and nothing is on the packet path but a few
+   * calls to System.nanoTime().  Times are in nanoseconds.
+   */
+  private volatile long rx_bytes=0;
+  private volatile long tx_bytes=0;
+  private volatile long tx_packets=0;
+  private volatile long rx_cipher_time=0;
+  private volatile long tx_cipher_time=0;
+  private volatile long rx_mac_time=0;
+  private volatile long tx_mac_time=0;
+  private volatile long rx_compression_time=0;
+  private volatile long tx_compression_time=0;
+  private volatile long kex_begin=0;
+  private volatile long kex_count=0;
+  private volatile long kex_time=0;
+  private volatile long kex_last_time=0;
+
+  /**
+   * Returns a snapshot of the transport counters of this session and of
+   * its open channels.  It is cheap enough to be polled periodically.
+   */
+  public SessionMetrics getMetrics(){
+    long writes=0, flushes=0;
+    IO _io=io;
+    if(_io!=null && _io.out instanceof BatchedOutputStream){
+      BatchedOutputStream _out=(BatchedOutputStream)_io.out;
+      writes=_out.getWriteCount();
+      flushes=_out.getFlushCount();
+    }
+    Channel[] _channels=channels.toArray();
+    SessionMetrics.ChannelMetrics[] cm=
+      new SessionMetrics.ChannelMetrics[_channels.length];
+    long stall=0;
+    long now=System.currentTimeMillis();
+    for(int i=0; i<_channels.length; i++){
+      Channel c=_channels[i];
+      cm[i]=new SessionMetrics.ChannelMetrics(c.getId(),
+                                              Util.byte2str(c.type),
+                                              c.rx_bytes, c.tx_bytes,
+                                              c.getStallTime(),
+                                              now-c.open_time,
+                                              c.lwsize_max);
+      stall+=c.getStallTime();
+    }
+    return new SessionMetrics(rx_bytes, tx_bytes, rx_packets, tx_packets,
+                              (rx_cipher_time+tx_cipher_time)/1000000L,
+                              (rx_mac_time+tx_mac_time)/1000000L,
+                              (rx_compression_time+tx_compression_time)/1000000L,
+                              kex_count, kex_time/1000000L,
+                              kex_last_time/1000000L,
+                              stall, getRoundTripTime(),
+                              rx_buffer_allocs, rx_buffer_alloc_bytes,
+                              writes, flushes, cm);
+  }
+
   public Buffer read(Buffer buf) throws Exception{
     int j=0;
+    long t0;
     while(true){
       buf.reset();
-      io.getByte(buf.buffer, buf.index, s2ccipher_size); 
-      buf.index+=s2ccipher_size;
-      if(s2ccipher!=null){
-        s2ccipher.update(buf.buffer, 0, s2ccipher_size, buf.buffer, 0);
-      }
-      j=((buf.buffer[0]<<24)&0xff000000)|
-        ((buf.buffer[1]<<16)&0x00ff0000)|
-        ((buf.buffer[2]<< 8)&0x0000ff00)|
-        ((buf.buffer[3]    )&0x000000ff);
-      // RFC 4253 6.1. Maximum Packet Length
-      if(j<5 || j>PACKET_MAX_SIZE){
-        start_discard(buf, s2ccipher, s2cmac, j, PACKET_MAX_SIZE);
-      }
-      int need = j+4-s2ccipher_size;
-      //if(need<0){
-      //  throw new IOException("invalid data");
-      //}
-      if((buf.index+need)>buf.buffer.length){
-        byte[] foo=new byte[buf.index+need];
-        System.arraycopy(buf.buffer, 0, foo, 0, buf.index);
-        buf.buffer=foo;
-      }
-
-      if((need%s2ccipher_size)!=0){
-        String message="Bad packet length "+need;
-        if(JSch.getLogger().isEnabled(Logger.FATAL)){
-          JSch.getLogger().log(Logger.FATAL, message); 
-        }
-        start_discard(buf, s2ccipher, s2cmac, j, PACKET_MAX_SIZE-s2ccipher_size);
+      if(s2caead!=null){
+        readAEAD(buf);
       }
-
-      if(need>0){
-	io.getByte(buf.buffer, buf.index, need); buf.index+=(need);
-	if(s2ccipher!=null){
-	  s2ccipher.update(buf.buffer, s2ccipher_size, need, buf.buffer, s2ccipher_size);
-	}
+      else if(s2cetm){
+        readETM(buf);
       }
+      else{
+        io.getByte(buf.buffer, buf.index, s2ccipher_size); 
+        buf.index+=s2ccipher_size;
+        if(s2ccipher!=null){
+          t0=System.nanoTime();
+          s2ccipher.update(buf.buffer, 0, s2ccipher_size, buf.buffer, 0);
+          rx_cipher_time+=System.nanoTime()-t0;
+        }
+        j=((buf.buffer[0]<<24)&0xff000000)|
+          ((buf.buffer[1]<<16)&0x00ff0000)|
+          ((buf.buffer[2]<< 8)&0x0000ff00)|
+          ((buf.buffer[3]    )&0x000000ff);
+        // RFC 4253 6.1. Maximum Packet Length
+        if(j<5 || j>PACKET_MAX_SIZE){
+          start_discard(buf, s2ccipher, s2cmac, j, PACKET_MAX_SIZE);
+        }
+        int need = j+4-s2ccipher_size;
+        //if(need<0){
+        //  throw new IOException("invalid data");
+        //}
+        if((buf.index+need)>buf.buffer.length){
+          growReceiveBuffer(buf, buf.index+need);
+        }
 
-      if(s2cmac!=null){
-	s2cmac.update(seqi);
-	s2cmac.update(buf.buffer, 0, buf.index);
+        if((need%s2ccipher_size)!=0){
+          String message="Bad packet length "+need;
+          if(JSch.getLogger().isEnabled(Logger.FATAL)){
+            JSch.getLogger().log(Logger.FATAL, message); 
+          }
+          start_discard(buf, s2ccipher, s2cmac, j, PACKET_MAX_SIZE-s2ccipher_size);
+        }
 
-        s2cmac.doFinal(s2cmac_result1, 0);
-	io.getByte(s2cmac_result2, 0, s2cmac_result2.length);
-        if(!java.util.Arrays.equals(s2cmac_result1, s2cmac_result2)){
-          if(need > PACKET_MAX_SIZE){
-            throw new IOException("MAC Error");
+        if(need>0){
+          io.getByte(buf.buffer, buf.index, need); buf.index+=(need);
+          if(s2ccipher!=null){
+            t0=System.nanoTime();
+            s2ccipher.update(buf.buffer, s2ccipher_size, need, buf.buffer, s2ccipher_size);
+            rx_cipher_time+=System.nanoTime()-t0;
           }
-          start_discard(buf, s2ccipher, s2cmac, j, PACKET_MAX_SIZE-need);
-          continue;
-	}
+        }
+
+        if(s2cmac!=null){
+          t0=System.nanoTime();
+          s2cmac.update(seqi);
+          s2cmac.update(buf.buffer, 0, buf.index);
+
+          s2cmac.doFinal(s2cmac_result1, 0);
+          rx_mac_time+=System.nanoTime()-t0;
+          io.getByte(s2cmac_result2, 0, s2cmac_result2.length);
+          if(!java.util.Arrays.equals(s2cmac_result1, s2cmac_result2)){
+            if(need > PACKET_MAX_SIZE){
+              throw new IOException("MAC Error");
+            }
+            start_discard(buf, s2ccipher, s2cmac, j, PACKET_MAX_SIZE-need);
+            continue;
+          }
+        }
       }
 
       seqi++;
+      rx_packets++;
+      rx_bytes+=buf.index+(s2cmac!=null ? s2cmac_result2.length :
+                           s2caead!=null ? s2caead.getTagSize() : 0);
 
       if(inflater!=null){
         //inflater.uncompress(buf);
 	int pad=buf.buffer[4];
 	uncompress_len[0]=buf.index-5-pad;
+        t0=System.nanoTime();
 	byte[] foo=inflater.uncompress(buf.buffer, 5, uncompress_len);
+        rx_compression_time+=System.nanoTime()-t0;
 	if(foo!=null){
+          if(foo!=buf.buffer){
+            receiveBufferAllocated(foo.length);
+          }
 	  buf.buffer=foo;
 	  buf.index=5+uncompress_len[0];
 	}
@@ -992,6 +1284,22 @@ key_type+" key fingerprint is "+key_fprint+".\n"+
       }
       else if(type==SSH_MSG_IGNORE){
       }
+      else if(type==SSH_MSG_EXT_INFO){
+        buf.rewind();
+        buf.getInt();buf.getShort();
+        int n=buf.getInt();
+        for(int k=0; k<n; k++){
+          String name=Util.byte2str(buf.getString());
+          byte[] value=buf.getString();
+          if(name.equals("server-sig-algs")){
+            server_sig_algs=Util.byte2str(value);
+            if(JSch.getLogger().isEnabled(Logger.INFO)){
+              JSch.getLogger().log(Logger.INFO, 
+                                   "server-sig-algs: "+server_sig_algs);
+            }
+          }
+        }
+      }
       else if(type==SSH_MSG_UNIMPLEMENTED){
         buf.rewind();
         buf.getInt();buf.getShort();
@@ -1042,6 +1350,70 @@ key_type+" key fingerprint is "+key_fprint+".\n"+
     return buf;
   }
 
+  /*
+   * Reads the next packet sealed with an AEAD cipher into buf, checks
+   * its tag and decrypts it.  There is no way to resynchronize after a
+   * bad length or tag, so both are fatal.
+   */
+  private void readAEAD(Buffer buf) throws Exception{
+    io.getByte(buf.buffer, 0, 4);
+    buf.index=4;
+    int j=s2caead.getPacketLength(seqi, buf.buffer, 0);
+    if(j<5 || j>PACKET_MAX_SIZE || (j%s2ccipher_size)!=0){
+      throw new JSchException("Packet corrupt");
+    }
+    int tag=s2caead.getTagSize();
+    if(4+j+tag>buf.buffer.length){
+      growReceiveBuffer(buf, 4+j+tag);
+    }
+    io.getByte(buf.buffer, 4, j+tag);
+    long t0=System.nanoTime();
+    boolean ok=s2caead.open(seqi, buf.buffer, 0, 4+j);
+    rx_cipher_time+=System.nanoTime()-t0;
+    if(!ok){
+      throw new IOException("MAC Error");
+    }
+    buf.index=4+j;
+  }
+
+  /*
+   * With an encrypt-then-MAC mode the packet length is sent in the clear
+   * and the MAC covers the encrypted packet, so a forged or corrupted
+   * packet is rejected before anything has been decrypted.
+   */
+  private void readETM(Buffer buf) throws Exception{
+    io.getByte(buf.buffer, 0, 4);
+    buf.index=4;
+    int j=((buf.buffer[0]<<24)&0xff000000)|
+          ((buf.buffer[1]<<16)&0x00ff0000)|
+          ((buf.buffer[2]<< 8)&0x0000ff00)|
+          ((buf.buffer[3]    )&0x000000ff);
+    if(j<5 || j>PACKET_MAX_SIZE || (j%s2ccipher_size)!=0){
+      throw new JSchException("Packet corrupt");
+    }
+    if(4+j>buf.buffer.length){
+      growReceiveBuffer(buf, 4+j);
+    }
+    io.getByte(buf.buffer, 4, j);
+    buf.index=4+j;
+
+    long t0=System.nanoTime();
+    s2cmac.update(seqi);
+    s2cmac.update(buf.buffer, 0, buf.index);
+    s2cmac.doFinal(s2cmac_result1, 0);
+    long t1=System.nanoTime();
+    rx_mac_time+=t1-t0;
+    io.getByte(s2cmac_result2, 0, s2cmac_result2.length);
+    if(!java.util.Arrays.equals(s2cmac_result1, s2cmac_result2)){
+      throw new IOException("MAC Error");
+    }
+
+    if(s2ccipher!=null){
+      s2ccipher.update(buf.buffer, 4, j, buf.buffer, 4);
+      rx_cipher_time+=System.nanoTime()-t1;
+    }
+  }
+
   private void start_discard(Buffer buf, Cipher cipher, MAC mac, 
                              int packet_length, int discard) throws JSchException, IOException{
     MAC discard_mac = null;
@@ -1079,7 +1451,11 @@ key_type+" key fingerprint is "+key_fprint+".\n"+
 
   private void receive_newkeys(Buffer buf, KeyExchange kex) throws Exception {
     updateKeys(kex);
-    in_kex=false;
+    long t=System.nanoTime()-kex_begin;
+    kex_count++;
+    kex_time+=t;
+    kex_last_time=t;
+    kexDone();
   }
   private void updateKeys(KeyExchange kex) throws Exception{
     byte[] K=kex.getK();
@@ -1152,14 +1528,25 @@ key_type+" key fingerprint is "+key_fprint+".\n"+
       s2ccipher.init(Cipher.DECRYPT_MODE, Es2c, IVs2c);
       s2ccipher_size=s2ccipher.getIVSize();
 
-      method=guess[KeyExchange.PROPOSAL_MAC_ALGS_STOC];
-      c=Class.forName(getConfig(method));
-      s2cmac=(MAC)(c.newInstance());
-      MACs2c = expandKey(buf, K, H, MACs2c, hash, s2cmac.getBlockSize());
-      s2cmac.init(MACs2c);
-      //mac_buf=new byte[s2cmac.getBlockSize()];
-      s2cmac_result1=new byte[s2cmac.getBlockSize()];
-      s2cmac_result2=new byte[s2cmac.getBlockSize()];
+      if(s2ccipher instanceof AEADCipher){
+        // the negotiated MAC, if any, is not used
+        s2caead=(AEADCipher)s2ccipher;
+        s2ccipher_size=s2caead.getPaddingSize();
+        s2cmac=null;
+        s2cetm=false;
+      }
+      else{
+        s2caead=null;
+        method=guess[KeyExchange.PROPOSAL_MAC_ALGS_STOC];
+        c=Class.forName(getConfig(method));
+        s2cmac=(MAC)(c.newInstance());
+        MACs2c = expandKey(buf, K, H, MACs2c, hash, s2cmac.getBlockSize());
+        s2cmac.init(MACs2c);
+        //mac_buf=new byte[s2cmac.getBlockSize()];
+        s2cmac_result1=new byte[s2cmac.getBlockSize()];
+        s2cmac_result2=new byte[s2cmac.getBlockSize()];
+        s2cetm=method.endsWith("-etm@openssh.com");
+      }
 
       method=guess[KeyExchange.PROPOSAL_ENC_ALGS_CTOS];
       c=Class.forName(getConfig(method));
@@ -1179,11 +1566,21 @@ key_type+" key fingerprint is "+key_fprint+".\n"+
       c2scipher.init(Cipher.ENCRYPT_MODE, Ec2s, IVc2s);
       c2scipher_size=c2scipher.getIVSize();
 
-      method=guess[KeyExchange.PROPOSAL_MAC_ALGS_CTOS];
-      c=Class.forName(getConfig(method));
-      c2smac=(MAC)(c.newInstance());
-      MACc2s = expandKey(buf, K, H, MACc2s, hash, c2smac.getBlockSize());
-      c2smac.init(MACc2s);
+      if(c2scipher instanceof AEADCipher){
+        c2saead=(AEADCipher)c2scipher;
+        c2scipher_size=c2saead.getPaddingSize();
+        c2smac=null;
+        c2setm=false;
+      }
+      else{
+        c2saead=null;
+        method=guess[KeyExchange.PROPOSAL_MAC_ALGS_CTOS];
+        c=Class.forName(getConfig(method));
+        c2smac=(MAC)(c.newInstance());
+        MACc2s = expandKey(buf, K, H, MACc2s, hash, c2smac.getBlockSize());
+        c2smac.init(MACc2s);
+        c2setm=method.endsWith("-etm@openssh.com");
+      }
 
       method=guess[KeyExchange.PROPOSAL_COMP_ALGS_CTOS];
       initDeflater(method);
@@ -1237,145 +1634,289 @@ key_type+" key fingerprint is "+key_fprint+".\n"+
     long t = getTimeout();
     while(true){
       if(in_kex){
-        if(t>0L && (System.currentTimeMillis()-kex_start_time)>t){
-          throw new JSchException("timeout in wating for rekeying process.");
-        }
-        try{Thread.sleep(10);}
-        catch(java.lang.InterruptedException e){};
+        c.addStallTime(waitForKex(t));
         continue;
       }
-      synchronized(c){
-
-        if(c.rwsize<length){
-          try{ 
-            c.notifyme++;
-            c.wait(100); 
-          }
-          catch(java.lang.InterruptedException e){
-          }
-          finally{
-            c.notifyme--;
-          }
-        }
-
-        if(c.rwsize>=length){
-          c.rwsize-=length;
-          break;
-        }
-
-      }
-      if(c.close || !c.isConnected()){
-	throw new IOException("channel is broken");
-      }
 
-      boolean sendit=false;
-      int s=0;
-      byte command=0;
-      int recipient=-1;
+      long len;
       synchronized(c){
-	if(c.rwsize>0){
-	  long len=c.rwsize;
-          if(len>length){
-            len=length;
-          }
-          if(len!=length){
-            s=packet.shift((int)len, 
-                           (c2scipher!=null ? c2scipher_size : 8),
-                           (c2smac!=null ? c2smac.getBlockSize() : 0));
-          }
-	  command=packet.buffer.getCommand();
-	  recipient=c.getRecipient();
-	  length-=len;
-	  c.rwsize-=len;
-	  sendit=true;
-	}
-      }
-      if(sendit){
-	_write(packet);
-        if(length==0){
-          return;
+        if(c.close || !c.isConnected()){
+          throw new IOException("channel is broken");
         }
-	packet.unshift(command, recipient, s, length);
-      }
-
-      synchronized(c){
-        if(in_kex){
+        if(c.rwsize<=0){
+          // woken up by addRemoteWindowSize() or by the channel closing
+          c.waitForRemoteWindow();
           continue;
         }
-        if(c.rwsize>=length){
-          c.rwsize-=length;
-          break;
+        len=c.rwsize;
+        if(len>length){
+          len=length;
         }
+        if(c.rmpsize>0 && len>c.rmpsize){
+          len=c.rmpsize;
+        }
+        c.rwsize-=len;
+        c.tx_bytes+=len;
+      }
 
-        //try{ 
-        //System.out.println("1wait: "+c.rwsize);
-        //  c.notifyme++;
-        //  c.wait(100); 
-        //}
-        //catch(java.lang.InterruptedException e){
-        //}
-        //finally{
-        //  c.notifyme--;
-        //}
+      if(len==length){
+        _write(packet);
+        return;
       }
+
+      // send as much as the remote window allows right away
+      int s=packet.shift((int)len, 
+                         (c2scipher!=null ? c2scipher_size : 8),
+                         (c2smac!=null ? c2smac.getBlockSize() :
+                          c2saead!=null ? c2saead.getTagSize() : 0));
+      byte command=packet.buffer.getCommand();
+      int recipient=c.getRecipient();
+      length-=len;
+      _write(packet);
+      packet.unshift(command, recipient, s, length);
     }
-    _write(packet);
   }
 
   public void write(Packet packet) throws Exception{
     // System.err.println("in_kex="+in_kex+" "+(packet.buffer.getCommand()));
-    long t = getTimeout();
-    while(in_kex){
-      if(t>0L && (System.currentTimeMillis()-kex_start_time)>t){
-        throw new JSchException("timeout in wating for rekeying process.");
-      }
+    if(in_kex){
       byte command=packet.buffer.getCommand();
       //System.err.println("command: "+command);
-      if(command==SSH_MSG_KEXINIT ||
-         command==SSH_MSG_NEWKEYS ||
-         command==SSH_MSG_KEXDH_INIT ||
-         command==SSH_MSG_KEXDH_REPLY ||
-         command==SSH_MSG_KEX_DH_GEX_GROUP ||
-         command==SSH_MSG_KEX_DH_GEX_INIT ||
-         command==SSH_MSG_KEX_DH_GEX_REPLY ||
-         command==SSH_MSG_KEX_DH_GEX_REQUEST ||
-         command==SSH_MSG_DISCONNECT){
-        break;
+      if(!isKexPacket(command) &&
+         command!=SSH_MSG_DISCONNECT){
+        waitForKex(getTimeout());
       }
-      try{Thread.sleep(10);}
-      catch(java.lang.InterruptedException e){};
     }
     _write(packet);
   }
 
+  /*
+   * Blocks until the key exchange in progress has finished, and returns
+   * the time spent waiting in nanoseconds.
+   */
+  private long waitForKex(long t) throws JSchException{
+    long start=System.nanoTime();
+    synchronized(kex_lock){
+      while(in_kex){
+        long w=0L;
+        if(t>0L){
+          w=t-(System.currentTimeMillis()-kex_start_time);
+          if(w<=0L){
+            throw new JSchException("timeout in wating for rekeying process.");
+          }
+        }
+        try{ kex_lock.wait(w); }
+        catch(java.lang.InterruptedException e){ }
+      }
+    }
+    return System.nanoTime()-start;
+  }
+
+  private void kexDone(){
+    synchronized(kex_lock){
+      in_kex=false;
+      kex_lock.notifyAll();
+    }
+  }
+
+  /*
+   * Packets from all the channels are coalesced in the BatchedOutputStream.
+   * The transport is only flushed when no other thread is queued up behind
+   * the lock to send, so the last writer of a burst always pushes it out and
+   * a lone keystroke is never held back.  Under sustained contention the
+   * buffer is still flushed when it fills or when its oldest byte gets
+   * older than "send_flush_latency" milliseconds.
+   */
+  private int writers_waiting=0;
+  private final Object writers_lock=new Object();
+
   private void _write(Packet packet) throws Exception{
+    PacketSender _sender=sender;
+    if(_sender!=null){
+      if(!isKexPacket(packet.buffer.getCommand())){
+        _sender.enqueue(packet);
+        return;
+      }
+      // The keys may be switched right after this packet has been sent,
+      // so it must not be left in the queue.
+      _sender.drain();
+    }
+    synchronized(writers_lock){
+      writers_waiting++;
+    }
     synchronized(lock){
+      boolean more;
+      synchronized(writers_lock){
+        more=(--writers_waiting)>0;
+      }
       encode(packet);
-      if(io!=null){
-        io.put(packet);
+      IO _io=io;
+      if(_io!=null){
+        _io.put(packet, !more || _io.isStale());
         seqo++;
       }
     }
   }
 
+  /*
+   * Invoked by the PacketSender thread; more is true if other packets
+   * are queued behind this one.
+   */
+  void writeQueued(Packet packet, boolean more) throws Exception{
+    synchronized(lock){
+      synchronized(writers_lock){
+        more|=writers_waiting>0;
+      }
+      encode(packet);
+      IO _io=io;
+      if(_io!=null){
+        _io.put(packet, !more || _io.isStale());
+        seqo++;
+      }
+    }
+  }
+
+  private static boolean isKexPacket(byte command){
+    return command==SSH_MSG_KEXINIT ||
+           command==SSH_MSG_NEWKEYS ||
+           command==SSH_MSG_KEXDH_INIT ||
+           command==SSH_MSG_KEXDH_REPLY ||
+           command==SSH_MSG_KEX_DH_GEX_GROUP ||
+           command==SSH_MSG_KEX_DH_GEX_INIT ||
+           command==SSH_MSG_KEX_DH_GEX_REPLY ||
+           command==SSH_MSG_KEX_DH_GEX_REQUEST;
+  }
+
+  private void startPacketSender(){
+    if(!"yes".equals(getConfig("send_pipeline"))){
+      return;
+    }
+    int max=256*1024;
+    try{ max=Integer.parseInt(getConfig("send_pipeline_max_bytes")); }
+    catch(Exception e){}
+    PacketSender _sender=new PacketSender(this, max);
+    Thread tmp=new Thread(_sender);
+    tmp.setName("Send thread "+host+" session");
+    if(daemon_thread){
+      tmp.setDaemon(daemon_thread);
+    }
+    tmp.start();
+    sender=_sender;
+  }
+
+  /*
+   * The local window of a channel is topped up once half of it, or three
+   * maximum sized packets, have been consumed, whichever comes first.
+   * Unless "max_window_size" is 0 the window also grows towards twice the
+   * bandwidth-delay product measured for the channel, so a fast consumer
+   * on a long path is not throttled by the initial window.
+   */
+  private int window_max=16*1024*1024;
+
+  private void consumeLocalWindow(Channel channel, int len,
+                                  Buffer buf, Packet packet) throws Exception{
+    channel.setLocalWindowSize(channel.lwsize-len);
+    int consumed=channel.lwsize_max-channel.lwsize;
+    if(channel.lwsize>=channel.lwsize_max/2 &&
+       consumed<channel.lmpsize*3){
+      return;
+    }
+    channel.autotuneLocalWindow(consumed, rtt, window_max);
+    packet.reset();
+    buf.putByte((byte)SSH_MSG_CHANNEL_WINDOW_ADJUST);
+    buf.putInt(channel.getRecipient());
+    buf.putInt(channel.lwsize_max-channel.lwsize);
+    synchronized(channel){
+      if(!channel.close)
+        write(packet);
+    }
+    channel.setLocalWindowSize(channel.lwsize_max);
+  }
+
+  /*
+   * Smallest round trip time seen on this session, in nanoseconds, or 0
+   * if none has been measured yet.  The samples are requests the server
+   * answers without much work of its own, so the minimum is a good
+   * estimate of the path delay.
+   */
+  private volatile long rtt=0L;
+
+  void addRttSample(long nanos){
+    long _rtt=rtt;
+    if(nanos>0L && (_rtt==0L || nanos<_rtt)){
+      rtt=nanos;
+    }
+  }
+
+  /**
+   * Returns the round trip time to the server in milliseconds,
+   * or 0 if it is not known yet.
+   */
+  public long getRoundTripTime(){
+    return rtt/1000000L;
+  }
+
+  private OutputStream batchedOutputStream(OutputStream out){
+    int size=64*1024;
+    int latency=5;
+    try{ size=Integer.parseInt(getConfig("send_buffer_size")); }
+    catch(Exception e){}
+    try{ latency=Integer.parseInt(getConfig("send_flush_latency")); }
+    catch(Exception e){}
+    if(size<=0){
+      return out;
+    }
+    return new BatchedOutputStream(out, size, latency);
+  }
+
   Runnable thread;
+  /*
+   * The state of the receive loop lives in fields, so that with the
+   * shared selector transport the loop can return while the session is
+   * idle and be resumed later on another thread.
+   */
+  private Buffer run_buf=null;
+  private Packet run_packet=null;
+  private KeyExchange run_kex=null;
+  private int run_stimeout=0;
+  private int[] run_start=new int[1];
+  private int[] run_length=new int[1];
+
   public void run(){
     thread=this;
 
+    if(run_buf==null){
+      run_buf=new Buffer(rx_buffer_size);  // already sized by the handshake
+      run_packet=new Packet(run_buf);
+    }
+
     byte[] foo;
-    Buffer buf=new Buffer();
-    Packet packet=new Packet(buf);
+    Buffer buf=run_buf;
+    Packet packet=run_packet;
     int i=0;
     Channel channel;
-    int[] start=new int[1];
-    int[] length=new int[1];
-    KeyExchange kex=null;
+    int[] start=run_start;
+    int[] length=run_length;
+    KeyExchange kex=run_kex;
 
-    int stimeout=0;
+    int stimeout=run_stimeout;
     try{
       while(isConnected &&
 	    thread!=null){
         try{
+          SelectorTransport.Connection _nio=nio;
+          if(_nio!=null){
+            if(_nio.checkTimeout()){
+              throw new SocketTimeoutException("keep-alive interval expired");
+            }
+            if(!_nio.hasInput()){
+              run_kex=kex;
+              run_stimeout=stimeout;
+              if(_nio.park(this)){
+                return;  // to be run again once there is input
+              }
+            }
+          }
           buf=read(buf);
           stimeout=0;
         }
@@ -1440,18 +1981,8 @@ catch(Exception e){
 break;
 }
 	  int len=length[0];
-	  channel.setLocalWindowSize(channel.lwsize-len);
- 	  if(channel.lwsize<channel.lwsize_max/2){
-            packet.reset();
-	    buf.putByte((byte)SSH_MSG_CHANNEL_WINDOW_ADJUST);
-	    buf.putInt(channel.getRecipient());
-	    buf.putInt(channel.lwsize_max-channel.lwsize);
-            synchronized(channel){
-              if(!channel.close)
-                write(packet);
-            }
-	    channel.setLocalWindowSize(channel.lwsize_max);
-	  }
+	  channel.rx_bytes+=len;
+	  consumeLocalWindow(channel, len, buf, packet);
 	  break;
 
         case SSH_MSG_CHANNEL_EXTENDED_DATA:
@@ -1473,18 +2004,8 @@ break;
 	  channel.write_ext(foo, start[0], length[0]);
 
 	  len=length[0];
-	  channel.setLocalWindowSize(channel.lwsize-len);
- 	  if(channel.lwsize<channel.lwsize_max/2){
-            packet.reset();
-	    buf.putByte((byte)SSH_MSG_CHANNEL_WINDOW_ADJUST);
-	    buf.putInt(channel.getRecipient());
-	    buf.putInt(channel.lwsize_max-channel.lwsize);
-            synchronized(channel){
-              if(!channel.close)
-                write(packet);
-            }
-	    channel.setLocalWindowSize(channel.lwsize_max);
-	  }
+	  channel.rx_bytes+=len;
+	  consumeLocalWindow(channel, len, buf, packet);
 	  break;
 
 	case SSH_MSG_CHANNEL_WINDOW_ADJUST:
@@ -1539,6 +2060,9 @@ break;
           long rws=buf.getUInt();
           int rps=buf.getInt();
           if(channel!=null){
+            if(channel.open_time_nanos!=0L){
+              addRttSample(System.nanoTime()-channel.open_time_nanos);
+            }
             channel.setRemoteWindowSize(rws);
             channel.setRemotePacketSize(rps);
             channel.open_confirmation=true;
@@ -1667,7 +2191,7 @@ break;
       }
     }
     catch(Exception e){
-      in_kex=false;
+      kexDone();
       if(JSch.getLogger().isEnabled(Logger.INFO)){
         JSch.getLogger().log(Logger.INFO,
                              "Caught an exception, leaving main loop due to " + e.getMessage());
@@ -1710,6 +2234,12 @@ break;
 
     Channel.disconnect(this);
 
+    PacketSender _sender=sender;
+    sender=null;
+    if(_sender!=null){
+      _sender.shutdown(1000);  // let the channel closes go out
+    }
+
     isConnected=false;
 
     PortWatcher.delPort(this);
@@ -1746,6 +2276,10 @@ break;
     }
     io=null;
     socket=null;
+    if(nio!=null){
+      nio.close();
+      nio=null;
+    }
 //    synchronized(jsch.pool){
 //      jsch.pool.removeElement(this);
 //    }
@@ -2245,8 +2779,11 @@ break;
     }
   }
 
+  final ChannelTable channels=new ChannelTable();
+
   void addChannel(Channel channel){
     channel.setSession(this);
+    channels.add(channel);
   }
 
   public void setProxy(Proxy proxy){ this.proxy=proxy; }
@@ -2329,6 +2866,44 @@ break;
       throw new JSchException(e.toString());
     }
   }
+  private void addAuthMethod(String method){
+    auth_methods=(auth_methods==null) ? method : auth_methods+","+method;
+  }
+
+  /**
+   * Returns the signature algorithms the server accepts for public key
+   * authentication, as announced in its "server-sig-algs" extension,
+   * or null if it did not send one.
+   */
+  public String getServerSigAlgs(){
+    return server_sig_algs;
+  }
+
+  /**
+   * Returns the timeline of the last connect(), or null if connect()
+   * has not been called.  It is kept after connect() fails.
+   */
+  public ConnectTrace getConnectTrace(){
+    return trace;
+  }
+
+  /**
+   * Returns the authentication methods that were accepted during
+   * connect, comma separated, in the order they succeeded.  More than
+   * one is only seen when the server demands partial authentications.
+   */
+  public String getAuthMethods(){
+    return auth_methods;
+  }
+
+  /**
+   * Returns the authentication methods the server said can continue
+   * after the initial "none" request.
+   */
+  public String getServerAuthMethods(){
+    return auth_smethods;
+  }
+
   public String getServerVersion(){
     return Util.byte2str(V_S);
   }
@@ -2511,6 +3086,92 @@ break;
     return foo;
   }
 
+  private String[] checkSignatures(String sigs){
+    if(sigs==null || sigs.length()==0)
+      return null;
+
+    if(JSch.getLogger().isEnabled(Logger.INFO)){
+      JSch.getLogger().log(Logger.INFO, 
+                           "CheckSignatures: "+sigs);
+    }
+
+    java.util.Vector result=new java.util.Vector();
+    String[] _sigs=Util.split(sigs, ",");
+    for(int i=0; i<_sigs.length; i++){
+      try{
+        Class c=Class.forName(getConfig(_sigs[i]));
+        Signature sig=(Signature)(c.newInstance());
+        sig.init();
+      }
+      catch(Exception e){
+        result.addElement(_sigs[i]);
+      }
+    }
+    if(result.size()==0)
+      return null;
+    String[] foo=new String[result.size()];
+    System.arraycopy(result.toArray(), 0, foo, 0, result.size());
+
+    if(JSch.getLogger().isEnabled(Logger.INFO)){
+      for(int i=0; i<foo.length; i++){
+        JSch.getLogger().log(Logger.INFO, 
+                             foo[i]+" is not available.");
+      }
+    }
+
+    return foo;
+  }
+
+  /*
+   * Moves the host key algorithms we already hold a key for, for this
+   * host, to the front of the list.  Otherwise a server that also has,
+   * say, an ECDSA key would answer with it and a host that was accepted
+   * with its RSA key would be reported as unknown.
+   */
+  private String preferKnownHostKeyTypes(String server_host_key){
+    if(!getConfig("prefer_known_host_key_types").equals("yes")){
+      return server_host_key;
+    }
+
+    String chost=host;
+    if(hostKeyAlias!=null){
+      chost=hostKeyAlias;
+    }
+    if(hostKeyAlias==null && port!=22){
+      chost=("["+chost+"]:"+port);
+    }
+
+    HostKeyRepository hkr=getHostKeyRepository();
+    HostKey[] hks;
+    synchronized(hkr){
+      hks=hkr.getHostKey(chost, null);
+    }
+    if(hks==null || hks.length==0){
+      return server_host_key;
+    }
+
+    StringBuffer known=new StringBuffer();
+    StringBuffer others=new StringBuffer();
+    String[] algs=Util.split(server_host_key, ",");
+    for(int i=0; i<algs.length; i++){
+      boolean isKnown=false;
+      String type=algs[i].startsWith("rsa-sha2-") ? "ssh-rsa" : algs[i];
+      for(int j=0; j<hks.length; j++){
+        if(hks[j].getType().equals(type)){
+          isKnown=true;
+          break;
+        }
+      }
+      StringBuffer sb=isKnown ? known : others;
+      if(sb.length()>0) sb.append(',');
+      sb.append(algs[i]);
+    }
+    if(known.length()>0 && others.length()>0){
+      known.append(',');
+    }
+    return known.append(others).toString();
+  }
+
   static boolean checkKex(Session s, String kex){
     try{
       Class c=Class.forName(kex);
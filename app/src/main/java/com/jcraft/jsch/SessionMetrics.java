@@ -0,0 +1,228 @@
+/* -*-mode:java; c-basic-offset:2; indent-tabs-mode:nil -*- */
+/*
+Copyright (c) 2002-2014 ymnk, JCraft,Inc. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+  1. Redistributions of source code must retain the above copyright notice,
+     this list of conditions and the following disclaimer.
+
+  2. Redistributions in binary form must reproduce the above copyright 
+     notice, this list of conditions and the following disclaimer in 
+     the documentation and/or other materials provided with the distribution.
+
+  3. The names of the authors may not be used to endorse or promote products
+     derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL JCRAFT,
+INC. OR ANY CONTRIBUTORS TO THIS SOFTWARE BE LIABLE FOR ANY DIRECT, INDIRECT,
+INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.jcraft.jsch;
+
+/**
+ * A point-in-time snapshot of the transport counters of a session,
+ * as returned by {@link Session#getMetrics()}.
+ * Byte counts include the packet framing, padding and MAC as they
+ * were seen on the wire; times are in milliseconds.
+ */
+public class SessionMetrics{
+  private final long rx_bytes;
+  private final long tx_bytes;
+  private final long rx_packets;
+  private final long tx_packets;
+  private final long cipher_time;
+  private final long mac_time;
+  private final long compression_time;
+  private final long kex_count;
+  private final long kex_time;
+  private final long kex_last_time;
+  private final long stall_time;
+  private final long rtt;
+  private final long rx_buffer_allocs;
+  private final long rx_buffer_alloc_bytes;
+  private final long transport_writes;
+  private final long transport_flushes;
+  private final ChannelMetrics[] channels;
+
+  SessionMetrics(long rx_bytes, long tx_bytes,
+                 long rx_packets, long tx_packets,
+                 long cipher_time, long mac_time, long compression_time,
+                 long kex_count, long kex_time, long kex_last_time,
+                 long stall_time, long rtt,
+                 long rx_buffer_allocs, long rx_buffer_alloc_bytes,
+                 long transport_writes, long transport_flushes,
+                 ChannelMetrics[] channels){
+    this.rx_bytes=rx_bytes;
+    this.tx_bytes=tx_bytes;
+    this.rx_packets=rx_packets;
+    this.tx_packets=tx_packets;
+    this.cipher_time=cipher_time;
+    this.mac_time=mac_time;
+    this.compression_time=compression_time;
+    this.kex_count=kex_count;
+    this.kex_time=kex_time;
+    this.kex_last_time=kex_last_time;
+    this.stall_time=stall_time;
+    this.rtt=rtt;
+    this.rx_buffer_allocs=rx_buffer_allocs;
+    this.rx_buffer_alloc_bytes=rx_buffer_alloc_bytes;
+    this.transport_writes=transport_writes;
+    this.transport_flushes=transport_flushes;
+    this.channels=channels;
+  }
+
+  public long getReceivedBytes(){ return rx_bytes; }
+  public long getSentBytes(){ return tx_bytes; }
+  public long getReceivedPackets(){ return rx_packets; }
+  public long getSentPackets(){ return tx_packets; }
+
+  /**
+   * Time spent encrypting and decrypting packets.
+   */
+  public long getCipherTime(){ return cipher_time; }
+
+  /**
+   * Time spent computing and verifying MACs.
+   */
+  public long getMacTime(){ return mac_time; }
+
+  /**
+   * Time spent in zlib, in both directions.
+   */
+  public long getCompressionTime(){ return compression_time; }
+
+  /**
+   * Number of completed key exchanges, including the initial one.
+   */
+  public long getKexCount(){ return kex_count; }
+  public long getKexTime(){ return kex_time; }
+  public long getLastKexTime(){ return kex_last_time; }
+
+  /**
+   * Total time the writers of the open channels have been blocked on
+   * the remote window or on a key re-exchange.
+   */
+  public long getStallTime(){ return stall_time; }
+
+  /**
+   * Smallest round trip time measured to the server, or 0 if unknown.
+   */
+  public long getRoundTripTime(){ return rtt; }
+
+  public long getReceiveBufferAllocations(){ return rx_buffer_allocs; }
+  public long getReceiveBufferAllocatedBytes(){ return rx_buffer_alloc_bytes; }
+
+  /**
+   * Number of writes the batching stream in front of the socket made
+   * to the socket, each carrying one buffer of coalesced packets or a
+   * single packet too large to buffer.  Compared with
+   * {@link #getSentPackets()} it shows how well packets are coalesced.
+   * 0 if batching is disabled.
+   */
+  public long getTransportWrites(){ return transport_writes; }
+
+  /**
+   * Number of times the batching stream was flushed, or 0 if batching
+   * is disabled.
+   */
+  public long getTransportFlushes(){ return transport_flushes; }
+
+  public ChannelMetrics[] getChannels(){ return channels; }
+
+  public String toString(){
+    StringBuffer sb=new StringBuffer();
+    sb.append("in: "+rx_bytes+" bytes, "+rx_packets+" packets\n");
+    sb.append("out: "+tx_bytes+" bytes, "+tx_packets+" packets\n");
+    sb.append("cipher: "+cipher_time+" ms, mac: "+mac_time+" ms, "+
+              "compression: "+compression_time+" ms\n");
+    sb.append("kex: "+kex_count+", "+kex_time+" ms total, "+
+              kex_last_time+" ms last\n");
+    sb.append("window stalls: "+stall_time+" ms\n");
+    sb.append("rtt: "+rtt+" ms\n");
+    sb.append("receive buffers: "+rx_buffer_allocs+", "+
+              rx_buffer_alloc_bytes+" bytes\n");
+    if(transport_writes>0){
+      sb.append("transport: "+tx_packets+" packets in "+
+                transport_writes+" socket writes, "+
+                transport_flushes+" flushes\n");
+    }
+    for(int i=0; i<channels.length; i++){
+      sb.append(channels[i].toString());
+      sb.append("\n");
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Payload counters of one channel.  Byte counts are channel data
+   * only, and the throughput is averaged since the channel was opened.
+   */
+  public static class ChannelMetrics{
+    private final int id;
+    private final String type;
+    private final long rx_bytes;
+    private final long tx_bytes;
+    private final long stall_time;
+    private final long elapsed;
+    private final int window;
+
+    ChannelMetrics(int id, String type, long rx_bytes, long tx_bytes,
+                   long stall_time, long elapsed, int window){
+      this.id=id;
+      this.type=type;
+      this.rx_bytes=rx_bytes;
+      this.tx_bytes=tx_bytes;
+      this.stall_time=stall_time;
+      this.elapsed=elapsed;
+      this.window=window;
+    }
+
+    public int getId(){ return id; }
+    public String getType(){ return type; }
+    public long getReceivedBytes(){ return rx_bytes; }
+    public long getSentBytes(){ return tx_bytes; }
+    public long getStallTime(){ return stall_time; }
+
+    /**
+     * Milliseconds since the channel was created.
+     */
+    public long getElapsedTime(){ return elapsed; }
+
+    /**
+     * Current size of the receive window granted to the server.
+     */
+    public int getLocalWindowSize(){ return window; }
+
+    /**
+     * Average inbound throughput, in bytes per second.
+     */
+    public long getReceiveRate(){ return rate(rx_bytes); }
+
+    /**
+     * Average outbound throughput, in bytes per second.
+     */
+    public long getSendRate(){ return rate(tx_bytes); }
+
+    private long rate(long bytes){
+      if(elapsed<=0) return 0;
+      return bytes*1000L/elapsed;
+    }
+
+    public String toString(){
+      return "channel "+id+" ("+type+"): in "+rx_bytes+" bytes ("+
+             getReceiveRate()+" B/s), out "+tx_bytes+" bytes ("+
+             getSendRate()+" B/s), stalled "+stall_time+" ms, window "+
+             window+" bytes";
+    }
+  }
+}
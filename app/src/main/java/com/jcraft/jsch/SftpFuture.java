@@ -0,0 +1,131 @@
+/* -*-mode:java; c-basic-offset:2; indent-tabs-mode:nil -*- */
+/*
+Copyright (c) 2002-2014 ymnk, JCraft,Inc. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+  1. Redistributions of source code must retain the above copyright notice,
+     this list of conditions and the following disclaimer.
+
+  2. Redistributions in binary form must reproduce the above copyright 
+     notice, this list of conditions and the following disclaimer in 
+     the documentation and/or other materials provided with the distribution.
+
+  3. The names of the authors may not be used to endorse or promote products
+     derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL JCRAFT,
+INC. OR ANY CONTRIBUTORS TO THIS SOFTWARE BE LIABLE FOR ANY DIRECT, INDIRECT,
+INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.jcraft.jsch;
+
+/**
+ * The reply to a request sent by one of the <code>...Async</code>
+ * methods of <code>ChannelSftp</code>, such as <code>statAsync</code>.
+ * Any number of such requests may be outstanding on a channel, and
+ * their replies are matched to them by request id, so a batch of them
+ * costs about one round trip instead of one each.
+ *
+ * Nothing reads the channel in the background.  Replies are taken in
+ * by <code>get()</code>, by <code>ChannelSftp.awaitAsync()</code>, or
+ * by any other operation on the channel that comes across them, and
+ * the callback, if any, is invoked on that thread.
+ *
+ * Replies that have not been taken in stay in the channel's input
+ * buffer, which holds only about one maximum-size packet's worth.  A
+ * caller with many requests to make should keep a bounded number
+ * outstanding, say 64, and take in replies as it sends more; if the
+ * buffer fills up, the session can stall waiting for a window
+ * adjustment it can no longer read.
+ *
+ * @see ChannelSftp#statAsync(String, SftpFuture.Callback)
+ */
+public class SftpFuture{
+
+  /**
+   * Invoked once the reply to a request has been read.
+   *
+   * The reply may be read in the middle of another operation on the
+   * channel, such as a transfer or a synchronous <code>stat</code>,
+   * and <code>done()</code> then runs inside that operation.  So it
+   * must not use the channel: a synchronous call made from there would
+   * take the outer operation's reply as its own.  Record the result,
+   * or hand it to another thread, and use the channel once the
+   * operation that read the reply has returned.
+   */
+  public interface Callback{
+    void done(SftpFuture future);
+  }
+
+  // what kind of reply is expected besides SSH_FXP_STATUS
+  static final int STATUS=0;
+  static final int ATTRS=1;
+  static final int NAME=2;
+
+  private ChannelSftp channel;
+  private String path;
+  private Callback callback;
+  int kind;
+
+  private boolean done=false;
+  private Object result=null;
+  private SftpException error=null;
+
+  SftpFuture(ChannelSftp channel, int kind, String path, Callback callback){
+    this.channel=channel;
+    this.kind=kind;
+    this.path=path;
+    this.callback=callback;
+  }
+
+  /**
+   * Returns the absolute remote path the request was sent for.
+   */
+  public String getPath(){
+    return path;
+  }
+
+  /**
+   * Returns <code>true</code> once the reply has been read.
+   */
+  public boolean isDone(){
+    return done;
+  }
+
+  /**
+   * Waits for the reply, reading the channel if necessary, and returns
+   * the result: a <code>SftpATTRS</code> for stat and lstat, a
+   * <code>String</code> for readlink and realpath, and
+   * <code>null</code> for the others.
+   *
+   * @throws SftpException with the server's status if the request failed.
+   */
+  public Object get() throws SftpException{
+    if(!done){
+      channel.await(this);
+    }
+    if(error!=null){
+      throw error;
+    }
+    return result;
+  }
+
+  void complete(Object result, SftpException error){
+    this.result=result;
+    this.error=error;
+    done=true;
+    if(callback!=null){
+      callback.done(this);
+    }
+  }
+}
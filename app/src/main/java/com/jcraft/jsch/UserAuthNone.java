@@ -43,6 +43,7 @@ class UserAuthNone extends UserAuth{
     packet.reset();
     buf.putByte((byte)Session.SSH_MSG_SERVICE_REQUEST);
     buf.putString(Util.str2byte("ssh-userauth"));
+    long sent=System.nanoTime();
     session.write(packet);
 
     if(JSch.getLogger().isEnabled(Logger.INFO)){
@@ -57,6 +58,9 @@ class UserAuthNone extends UserAuth{
     int command=buf.getCommand();
 
     boolean result=(command==SSH_MSG_SERVICE_ACCEPT);
+    if(result){
+      session.addRttSample(System.nanoTime()-sent);
+    }
 
     if(JSch.getLogger().isEnabled(Logger.INFO)){
       JSch.getLogger().log(Logger.INFO, 
@@ -65,6 +69,26 @@ class UserAuthNone extends UserAuth{
     if(!result)
       return false;
 
+    // the caller may already know which methods this server offers
+    // from an earlier connection, in which case the "none" probe
+    // is just a wasted round trip.
+    String known=session.getConfig("ServerAuthentications");
+    if(known!=null && known.length()>0){
+      methods=known;
+      return false;
+    }
+
+    return probe(session);
+  }
+
+  /*
+   * Send a "none" request and collect the list of methods that can
+   * continue.  May also be called after a failed authentication to
+   * learn what the server really offers.
+   */
+  boolean probe(Session session) throws Exception{
+    int command;
+
     byte[] _username=null;
     _username=Util.str2byte(username);
 
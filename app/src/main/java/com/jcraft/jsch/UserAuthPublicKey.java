@@ -58,6 +58,7 @@ class UserAuthPublicKey extends UserAuth{
 
         Identity identity=(Identity)(identities.elementAt(i));
         byte[] pubkeyblob=identity.getPublicKeyBlob();
+        String alg=getSignatureAlgorithm(session, identity);
 
         if(pubkeyblob!=null){
           // send
@@ -74,7 +75,7 @@ class UserAuthPublicKey extends UserAuth{
           buf.putString(Util.str2byte("ssh-connection"));
           buf.putString(Util.str2byte("publickey"));
           buf.putByte((byte)0);
-          buf.putString(Util.str2byte(identity.getAlgName()));
+          buf.putString(Util.str2byte(alg));
           buf.putString(pubkeyblob);
           session.write(packet);
 
@@ -170,7 +171,7 @@ class UserAuthPublicKey extends UserAuth{
         buf.putString(Util.str2byte("ssh-connection"));
         buf.putString(Util.str2byte("publickey"));
         buf.putByte((byte)1);
-        buf.putString(Util.str2byte(identity.getAlgName()));
+        buf.putString(Util.str2byte(alg));
         buf.putString(pubkeyblob);
 
 //      byte[] tmp=new byte[buf.index-5];
@@ -186,7 +187,9 @@ class UserAuthPublicKey extends UserAuth{
         tmp[3]=(byte)(sidlen);
         System.arraycopy(sid, 0, tmp, 4, sidlen);
         System.arraycopy(buf.buffer, 5, tmp, 4+sidlen, buf.index-5);
-        byte[] signature=identity.getSignature(tmp);
+        byte[] signature=(identity instanceof IdentityFile) ?
+          ((IdentityFile)identity).getSignature(tmp, alg) :
+          identity.getSignature(tmp);
         if(signature==null){  // for example, too long key length.
           break;
         }
@@ -231,4 +234,28 @@ class UserAuthPublicKey extends UserAuth{
     }
     return false;
   }
+
+  /*
+   * Many servers no longer accept SHA-1 signatures, so an RSA key signs
+   * with the first of "pubkey_rsa_sig_algs" the server lists in its
+   * server-sig-algs extension.  Without the extension, the server
+   * predates RFC 8332 and only ssh-rsa is safe to use.
+   */
+  private String getSignatureAlgorithm(Session session, Identity identity){
+    String alg=identity.getAlgName();
+    String server=session.getServerSigAlgs();
+    if(!alg.equals("ssh-rsa") || server==null ||
+       !(identity instanceof IdentityFile)){
+      return alg;
+    }
+    String[] ours=Util.split(session.getConfig("pubkey_rsa_sig_algs"), ",");
+    String[] theirs=Util.split(server, ",");
+    for(int i=0; ours!=null && i<ours.length; i++){
+      for(int j=0; j<theirs.length; j++){
+        if(ours[i].equals(theirs[j]))
+          return ours[i];
+      }
+    }
+    return alg;
+  }
 }
@@ -28,10 +28,14 @@ EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 */
 
 package com.jcraft.jsch;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.channels.SocketChannel;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.util.Vector;
 
 class Util{
 
@@ -337,64 +341,209 @@ class Util{
     return true;
   }
   static Socket createSocket(String host, int port, int timeout) throws JSchException{
+    return createSocket(host, port, timeout, null);
+  }
+
+  /*
+   * As above, but marks the end of the name lookup and of the TCP
+   * connect in <code>trace</code>, if it is not null.
+   */
+  static Socket createSocket(String host, int port, int timeout,
+                             ConnectTrace trace) throws JSchException{
+    return connect(host, port, timeout, trace, false);
+  }
+
+  /*
+   * Same as createSocket(), for the selector transport.
+   */
+  static SocketChannel createSocketChannel(String host, int port, int timeout,
+                                           ConnectTrace trace) throws JSchException{
+    return connect(host, port, timeout, trace, true).getChannel();
+  }
+
+  /*
+   * Connects to whichever address of <code>host</code> answers first,
+   * in the manner of RFC 8305: the addresses are interleaved by family,
+   * and a new attempt is started every "connection_attempt_delay"
+   * milliseconds, or as soon as the previous one fails, until one of
+   * them connects.  The losers are closed.  On a dual-stack network
+   * with a broken IPv6 route this gets through over IPv4 after a
+   * fraction of a second rather than after the whole timeout.
+   */
+  private static Socket connect(String host, int port, int timeout,
+                                ConnectTrace trace, boolean nio) throws JSchException{
+    long deadline=(timeout>0) ? System.currentTimeMillis()+timeout : 0;
+    InetAddress[] addrs;
+    try{
+      addrs=interleave(AddressCache.lookup(host, timeout));
+    }
+    catch(Exception e){
+      throw new JSchException(e.toString(), e);
+    }
+    if(trace!=null) trace.mark("dns");
+
+    int delay=250;
+    try{ delay=Integer.parseInt(JSch.getConfig("connection_attempt_delay")); }
+    catch(Exception e){}
+
+    Race race=new Race(host, port, nio);
     Socket socket=null;
-    if(timeout==0){
-      try{
-        socket=new Socket(host, port);
-        return socket;
+    try{
+      synchronized(race){
+        int i=0;
+        long next=0;
+        while(true){
+          if(race.winner!=null || race.failed==addrs.length)
+            break;
+          long now=System.currentTimeMillis();
+          if(i<addrs.length && (race.failed==race.started || now>=next)){
+            race.start(addrs[i++], (int)remaining(deadline));
+            next=now+delay;
+            continue;
+          }
+          long t=(i<addrs.length) ? next-now : 0;
+          if(deadline>0){
+            long r=deadline-now;
+            if(r<=0) break;
+            if(t==0 || r<t) t=r;
+          }
+          race.wait(t);
+        }
+        socket=race.winner;
+        race.done=true;
       }
-      catch(Exception e){
-        String message=e.toString();
-        if(e instanceof Throwable)
-          throw new JSchException(message, (Throwable)e);
-        throw new JSchException(message);
+    }
+    catch(InterruptedException e){
+      synchronized(race){
+        socket=race.winner;
+        race.done=true;
       }
     }
-    final String _host=host;
-    final int _port=port;
-    final Socket[] sockp=new Socket[1];
-    final Exception[] ee=new Exception[1];
-    String message="";
-    Thread tmp=new Thread(new Runnable(){
-        public void run(){
-          sockp[0]=null;
-          try{
-            sockp[0]=new Socket(_host, _port);
+    race.closeLosers();
+
+    if(socket==null){
+      if(race.failed==addrs.length)
+        AddressCache.forget(host);
+      String message=(race.last!=null) ? race.last.toString() :
+                                         "timeout: socket is not established";
+      throw new JSchException(message, race.last);
+    }
+    if(trace!=null) trace.mark("tcp connect");
+    return socket;
+  }
+
+  private static long remaining(long deadline){
+    if(deadline==0) return 0;
+    return Math.max(deadline-System.currentTimeMillis(), 1);
+  }
+
+  /*
+   * Reorders addresses so that the families alternate, starting with
+   * the family the resolver listed first (RFC 8305, section 4).
+   */
+  static InetAddress[] interleave(InetAddress[] addrs){
+    Vector first=new Vector();
+    Vector other=new Vector();
+    for(int i=0; i<addrs.length; i++){
+      if(addrs[i].getClass()==addrs[0].getClass())
+        first.addElement(addrs[i]);
+      else
+        other.addElement(addrs[i]);
+    }
+    InetAddress[] result=new InetAddress[addrs.length];
+    int j=0;
+    for(int i=0; j<result.length; i++){
+      if(i<first.size()) result[j++]=(InetAddress)first.elementAt(i);
+      if(i<other.size()) result[j++]=(InetAddress)other.elementAt(i);
+    }
+    return result;
+  }
+
+  /*
+   * The connection attempts of one connect(), guarded by the object's
+   * monitor.
+   */
+  private static class Race{
+    final String host;
+    final int port;
+    final boolean nio;
+    final Vector sockets=new Vector();
+    int started=0;
+    int failed=0;
+    Socket winner=null;
+    Exception last=null;
+    boolean done=false;
+
+    Race(String host, int port, boolean nio){
+      this.host=host;
+      this.port=port;
+      this.nio=nio;
+    }
+
+    void start(final InetAddress addr, final int timeout){
+      started++;
+      Thread tmp=new Thread(new Runnable(){
+          public void run(){
+            attempt(addr, timeout);
           }
-          catch(Exception e){
-            ee[0]=e;
-            if(sockp[0]!=null && sockp[0].isConnected()){
-              try{
-                sockp[0].close();
-              }
-              catch(Exception eee){}
-            }
-            sockp[0]=null;
+        });
+      tmp.setName("Opening Socket "+host+" "+addr.getHostAddress());
+      tmp.setDaemon(true);
+      tmp.start();
+    }
+
+    private void attempt(InetAddress addr, int timeout){
+      Socket s=null;
+      try{
+        s=nio ? SocketChannel.open().socket() : new Socket();
+        synchronized(this){
+          if(done || winner!=null){
+            s.close();
+            return;
+          }
+          sockets.addElement(s);
+        }
+        s.connect(new InetSocketAddress(addr, port), timeout);
+        synchronized(this){
+          if(winner==null && !done){
+            winner=s;
+            notifyAll();
+            return;
           }
         }
-      });
-    tmp.setName("Opening Socket "+host);
-    tmp.start();
-    try{ 
-      tmp.join(timeout);
-      message="timeout: ";
-    }
-    catch(java.lang.InterruptedException eee){
-    }
-    if(sockp[0]!=null && sockp[0].isConnected()){
-      socket=sockp[0];
-    }
-    else{
-      message+="socket is not established";
-      if(ee[0]!=null){
-        message=ee[0].toString();
+        s.close();
+      }
+      catch(Exception e){
+        if(s!=null){
+          try{ s.close(); }
+          catch(IOException ee){}
+        }
+        synchronized(this){
+          failed++;
+          last=e;
+          notifyAll();
+        }
       }
-      tmp.interrupt();
-      tmp=null;
-      throw new JSchException(message, ee[0]);
     }
-    return socket;
-  } 
+
+    /*
+     * Closing a socket that is still connecting makes its attempt fail
+     * at once, so no thread outlives the race for long.
+     */
+    void closeLosers(){
+      Socket[] foo;
+      synchronized(this){
+        foo=new Socket[sockets.size()];
+        sockets.copyInto(foo);
+      }
+      for(int i=0; i<foo.length; i++){
+        if(foo[i]!=winner){
+          try{ foo[i].close(); }
+          catch(IOException e){}
+        }
+      }
+    }
+  }
 
   static byte[] str2byte(String str, String encoding){
     if(str==null) 
@@ -0,0 +1,164 @@
+/* -*-mode:java; c-basic-offset:2; indent-tabs-mode:nil -*- */
+/*
+Copyright (c) 2002-2014 ymnk, JCraft,Inc. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+  1. Redistributions of source code must retain the above copyright notice,
+     this list of conditions and the following disclaimer.
+
+  2. Redistributions in binary form must reproduce the above copyright 
+     notice, this list of conditions and the following disclaimer in 
+     the documentation and/or other materials provided with the distribution.
+
+  3. The names of the authors may not be used to endorse or promote products
+     derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL JCRAFT,
+INC. OR ANY CONTRIBUTORS TO THIS SOFTWARE BE LIABLE FOR ANY DIRECT, INDIRECT,
+INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.jcraft.jsch.jce;
+
+import com.jcraft.jsch.AEADCipher;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import javax.crypto.BadPaddingException;
+import javax.crypto.spec.*;
+
+/**
+ * aes128-gcm@openssh.com and aes256-gcm@openssh.com, as described in
+ * RFC 5647 with the changes made by OpenSSH: the packet length is sent
+ * in the clear as additional authenticated data, and the MAC
+ * negotiation is ignored.  The last 8 bytes of the 12 byte nonce are
+ * a counter, incremented after each packet.
+ */
+abstract class AESGCM implements AEADCipher{
+  private static final int ivsize=12;
+  private static final int tagsize=16;
+  private javax.crypto.Cipher cipher;
+  private SecretKeySpec keyspec;
+  private int mode;
+  private byte[] iv;
+
+  // GCMParameterSpec and Cipher.updateAAD() only exist from Android
+  // API 19 on, so they are looked up when the cipher is first used.
+  private static Constructor gcm_spec=null;
+  private static Method update_aad=null;
+
+  private static synchronized void lookup() throws Exception{
+    if(gcm_spec!=null) return;
+    Class c=Class.forName("javax.crypto.spec.GCMParameterSpec");
+    update_aad=javax.crypto.Cipher.class.getMethod("updateAAD",
+                 new Class[]{byte[].class, int.class, int.class});
+    gcm_spec=c.getConstructor(new Class[]{int.class, byte[].class});
+  }
+
+  public int getIVSize(){return ivsize;}
+  public int getTagSize(){return tagsize;}
+  public int getPaddingSize(){return 16;}
+
+  public void init(int mode, byte[] key, byte[] iv) throws Exception{
+    int bsize=getBlockSize();
+    byte[] tmp;
+    if(iv.length>ivsize){
+      tmp=new byte[ivsize];
+      System.arraycopy(iv, 0, tmp, 0, tmp.length);
+      iv=tmp;
+    }
+    if(key.length>bsize){
+      tmp=new byte[bsize];
+      System.arraycopy(key, 0, tmp, 0, tmp.length);
+      key=tmp;
+    }
+    this.mode=(mode==ENCRYPT_MODE?
+               javax.crypto.Cipher.ENCRYPT_MODE:
+               javax.crypto.Cipher.DECRYPT_MODE);
+    this.iv=iv;
+
+    try{
+      lookup();
+      keyspec=new SecretKeySpec(key, "AES");
+      cipher=javax.crypto.Cipher.getInstance("AES/GCM/NoPadding");
+      synchronized(javax.crypto.Cipher.class){
+        initCipher();
+      }
+    }
+    catch(Exception e){
+      cipher=null;
+      throw e;
+    }
+  }
+
+  private void initCipher() throws Exception{
+    cipher.init(mode, keyspec,
+                (java.security.spec.AlgorithmParameterSpec)
+                gcm_spec.newInstance(new Object[]{new Integer(tagsize*8), iv}));
+  }
+
+  /*
+   * The cipher is re-keyed with the next nonce right away, so that it is
+   * ready for the next packet; a GCM encryptor refuses to be initialized
+   * twice with the same nonce.  Like the other ciphers, only the first
+   * init() takes the global Cipher lock; this runs for every packet.
+   */
+  private void nextNonce() throws Exception{
+    for(int i=ivsize-1; i>=4; i--){
+      if(++iv[i]!=0) break;
+    }
+    initCipher();
+  }
+
+  public void update(byte[] foo, int s1, int len, byte[] bar, int s2) throws Exception{
+    throw new Exception("AES-GCM can only process whole packets");
+  }
+
+  private void updateAAD(byte[] buf, int s) throws Exception{
+    try{
+      update_aad.invoke(cipher, new Object[]{buf, new Integer(s), new Integer(4)});
+    }
+    catch(InvocationTargetException e){
+      Throwable t=e.getTargetException();
+      if(t instanceof Exception) throw (Exception)t;
+      throw e;
+    }
+  }
+
+  public int getPacketLength(int seq, byte[] buf, int s){
+    return ((buf[s]<<24)&0xff000000)|
+           ((buf[s+1]<<16)&0x00ff0000)|
+           ((buf[s+2]<< 8)&0x0000ff00)|
+           ((buf[s+3]    )&0x000000ff);
+  }
+
+  public void seal(int seq, byte[] buf, int s, int len) throws Exception{
+    updateAAD(buf, s);
+    cipher.doFinal(buf, s+4, len-4, buf, s+4);
+    nextNonce();
+  }
+
+  public boolean open(int seq, byte[] buf, int s, int len) throws Exception{
+    updateAAD(buf, s);
+    try{
+      cipher.doFinal(buf, s+4, len-4+tagsize, buf, s+4);
+    }
+    catch(BadPaddingException e){
+      // AEADBadTagException
+      return false;
+    }
+    nextNonce();
+    return true;
+  }
+
+  public boolean isCBC(){return false; }
+}
@@ -0,0 +1,129 @@
+/* -*-mode:java; c-basic-offset:2; indent-tabs-mode:nil -*- */
+/*
+Copyright (c) 2002-2014 ymnk, JCraft,Inc. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+  1. Redistributions of source code must retain the above copyright notice,
+     this list of conditions and the following disclaimer.
+
+  2. Redistributions in binary form must reproduce the above copyright 
+     notice, this list of conditions and the following disclaimer in 
+     the documentation and/or other materials provided with the distribution.
+
+  3. The names of the authors may not be used to endorse or promote products
+     derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL JCRAFT,
+INC. OR ANY CONTRIBUTORS TO THIS SOFTWARE BE LIABLE FOR ANY DIRECT, INDIRECT,
+INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.jcraft.jsch.jce;
+
+import java.math.BigInteger;
+import java.security.*;
+import java.security.interfaces.*;
+import java.security.spec.*;
+import javax.crypto.*;
+
+public class ECDHN implements com.jcraft.jsch.ECDH {
+  byte[] Q_array;
+  ECPublicKey publicKey;
+
+  private KeyAgreement myKeyAgree;
+
+  public void init(int size) throws Exception{
+    myKeyAgree=KeyAgreement.getInstance("ECDH");
+    KeyPairGenerator kpg=KeyPairGenerator.getInstance("EC");
+    kpg.initialize(new ECGenParameterSpec("secp"+size+"r1"));
+    KeyPair kp=kpg.generateKeyPair();
+    myKeyAgree.init(kp.getPrivate());
+    publicKey=(ECPublicKey)kp.getPublic();
+    Q_array=toPoint(publicKey.getW(), publicKey.getParams());
+  }
+
+  public byte[] getQ() throws Exception{
+    return Q_array;
+  }
+
+  public byte[] getSecret(byte[] Q) throws Exception{
+    ECParameterSpec params=publicKey.getParams();
+    KeyFactory kf=KeyFactory.getInstance("EC");
+    ECPublicKeySpec spec=new ECPublicKeySpec(fromPoint(Q, params), params);
+    PublicKey theirPublicKey=kf.generatePublic(spec);
+    myKeyAgree.doPhase(theirPublicKey, true);
+    return myKeyAgree.generateSecret();
+  }
+
+  /*
+   * RFC 5656 4 requires the peer's point to be checked before it is
+   * used: it must be a well formed uncompressed point, both coordinates
+   * must be in [0, p-1], and it must satisfy y^2 = x^3 + ax + b.  The
+   * NIST curves have cofactor 1, so no further subgroup check is needed.
+   */
+  public boolean validate(byte[] Q) throws Exception{
+    ECParameterSpec params=publicKey.getParams();
+    ECPoint w;
+    try{ w=fromPoint(Q, params); }
+    catch(Exception e){ return false; }
+
+    EllipticCurve curve=params.getCurve();
+    BigInteger p=((ECFieldFp)curve.getField()).getP();
+    BigInteger x=w.getAffineX();
+    BigInteger y=w.getAffineY();
+    if(x.compareTo(p)>=0 || y.compareTo(p)>=0){
+      return false;
+    }
+
+    BigInteger lhs=y.multiply(y).mod(p);
+    BigInteger rhs=x.multiply(x).add(curve.getA()).multiply(x)
+                    .add(curve.getB()).mod(p);
+    return lhs.equals(rhs);
+  }
+
+  static int fieldSize(ECParameterSpec params){
+    return (params.getCurve().getField().getFieldSize()+7)/8;
+  }
+
+  /*
+   * Encodes w as 0x04 || x || y with both coordinates padded to the
+   * field size (SEC1 2.3.3).
+   */
+  static byte[] toPoint(ECPoint w, ECParameterSpec params){
+    int n=fieldSize(params);
+    byte[] foo=new byte[1+2*n];
+    foo[0]=4;
+    putUnsigned(w.getAffineX(), foo, 1, n);
+    putUnsigned(w.getAffineY(), foo, 1+n, n);
+    return foo;
+  }
+
+  static ECPoint fromPoint(byte[] Q, ECParameterSpec params) throws Exception{
+    int n=fieldSize(params);
+    if(Q.length!=1+2*n || Q[0]!=4){
+      throw new Exception("invalid EC point");
+    }
+    byte[] x=new byte[n];
+    byte[] y=new byte[n];
+    System.arraycopy(Q, 1, x, 0, n);
+    System.arraycopy(Q, 1+n, y, 0, n);
+    return new ECPoint(new BigInteger(1, x), new BigInteger(1, y));
+  }
+
+  private static void putUnsigned(BigInteger v, byte[] buf, int s, int n){
+    byte[] foo=v.toByteArray();
+    int l=foo.length;
+    int i=0;
+    while(l>n){ i++; l--; }         // drop the sign byte
+    System.arraycopy(foo, i, buf, s+n-l, l);
+  }
+}
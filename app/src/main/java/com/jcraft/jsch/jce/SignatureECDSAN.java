@@ -0,0 +1,185 @@
+/* -*-mode:java; c-basic-offset:2; indent-tabs-mode:nil -*- */
+/*
+Copyright (c) 2002-2014 ymnk, JCraft,Inc. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+  1. Redistributions of source code must retain the above copyright notice,
+     this list of conditions and the following disclaimer.
+
+  2. Redistributions in binary form must reproduce the above copyright 
+     notice, this list of conditions and the following disclaimer in 
+     the documentation and/or other materials provided with the distribution.
+
+  3. The names of the authors may not be used to endorse or promote products
+     derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL JCRAFT,
+INC. OR ANY CONTRIBUTORS TO THIS SOFTWARE BE LIABLE FOR ANY DIRECT, INDIRECT,
+INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.jcraft.jsch.jce;
+
+import java.math.BigInteger;
+import java.security.*;
+import java.security.interfaces.*;
+import java.security.spec.*;
+import java.util.Hashtable;
+
+/*
+ * ecdsa-sha2-nistp* (RFC 5656 3.1).  SSH carries the signature as
+ * mpint r, mpint s, while JCE expects the DER encoding of
+ * SEQUENCE { INTEGER r, INTEGER s }; verify() and sign() convert
+ * between the two.
+ */
+public abstract class SignatureECDSAN implements com.jcraft.jsch.SignatureECDSA{
+
+  java.security.Signature signature;
+  KeyFactory keyFactory;
+  ECParameterSpec params;
+
+  abstract int getKeySize();
+
+  public void init() throws Exception{
+    int size=getKeySize();
+    String foo="SHA256withECDSA";
+    if(size==384) foo="SHA384withECDSA";
+    else if(size==521) foo="SHA512withECDSA";
+    signature=java.security.Signature.getInstance(foo);
+    keyFactory=KeyFactory.getInstance("EC");
+    params=getParams(size);
+  }     
+
+  // Session.checkSignatures() calls init() for every curve before each
+  // KEXINIT, so the curve parameters are looked up once and kept.
+  private static final Hashtable curves=new Hashtable();
+
+  static ECParameterSpec getParams(int size) throws Exception{
+    Integer key=new Integer(size);
+    ECParameterSpec params=(ECParameterSpec)curves.get(key);
+    if(params!=null) return params;
+
+    ECGenParameterSpec name=new ECGenParameterSpec("secp"+size+"r1");
+    try{
+      AlgorithmParameters ap=AlgorithmParameters.getInstance("EC");
+      ap.init(name);
+      params=ap.getParameterSpec(ECParameterSpec.class);
+    }
+    catch(GeneralSecurityException e){
+      // no EC AlgorithmParameters in this provider, take them from a key
+      KeyPairGenerator kpg=KeyPairGenerator.getInstance("EC");
+      kpg.initialize(name);
+      params=((ECPublicKey)kpg.generateKeyPair().getPublic()).getParams();
+    }
+    curves.put(key, params);
+    return params;
+  }
+  public void setPubKey(byte[] Q) throws Exception{
+    ECPublicKeySpec spec=new ECPublicKeySpec(ECDHN.fromPoint(Q, params),
+                                             params);
+    PublicKey pubKey=keyFactory.generatePublic(spec);
+    signature.initVerify(pubKey);
+  }
+  public void setPrvKey(byte[] s) throws Exception{
+    ECPrivateKeySpec spec=new ECPrivateKeySpec(new BigInteger(1, s), params);
+    PrivateKey prvKey=keyFactory.generatePrivate(spec);
+    signature.initSign(prvKey);
+  }
+  public byte[] sign() throws Exception{
+    byte[] sig=signature.sign();
+
+    // SEQUENCE { INTEGER r, INTEGER s } -> mpint r, mpint s
+    // Neither INTEGER is longer than 67 bytes, so only the SEQUENCE
+    // may use the long form of the length.
+    int i=2;
+    if((sig[1]&0x80)!=0) i+=sig[1]&0x7f;
+    byte[] r=derInteger(sig, i);
+    i+=2+r.length;
+    byte[] s=derInteger(sig, i);
+
+    byte[] foo=new byte[4+r.length+4+s.length];
+    putString(foo, 0, r);
+    putString(foo, 4+r.length, s);
+    return foo;
+  }
+  public void update(byte[] foo) throws Exception{
+    signature.update(foo);
+  }
+  public boolean verify(byte[] sig) throws Exception{
+    int i=0;
+    int j=0;
+    byte[] tmp;
+
+    // The blob itself also starts with a length, so look for the
+    // 19 byte "ecdsa-sha2-nistp*" name to tell if it is wrapped.
+    j=((sig[i++]<<24)&0xff000000)|((sig[i++]<<16)&0x00ff0000)|
+      ((sig[i++]<<8)&0x0000ff00)|((sig[i++])&0x000000ff);
+    if(j==19 && sig[i]=='e'){
+      // string "ecdsa-sha2-nistp*", string blob
+      i+=j;
+      j=((sig[i++]<<24)&0xff000000)|((sig[i++]<<16)&0x00ff0000)|
+        ((sig[i++]<<8)&0x0000ff00)|((sig[i++])&0x000000ff);
+      tmp=new byte[j]; 
+      System.arraycopy(sig, i, tmp, 0, j); sig=tmp;
+    }
+
+    // mpint r, mpint s -> SEQUENCE { INTEGER r, INTEGER s }
+    i=0;
+    j=((sig[i++]<<24)&0xff000000)|((sig[i++]<<16)&0x00ff0000)|
+      ((sig[i++]<<8)&0x0000ff00)|((sig[i++])&0x000000ff);
+    byte[] r=new byte[j];
+    System.arraycopy(sig, i, r, 0, j); i+=j;
+    j=((sig[i++]<<24)&0xff000000)|((sig[i++]<<16)&0x00ff0000)|
+      ((sig[i++]<<8)&0x0000ff00)|((sig[i++])&0x000000ff);
+    byte[] s=new byte[j];
+    System.arraycopy(sig, i, s, 0, j);
+
+    r=new BigInteger(1, r).toByteArray();
+    s=new BigInteger(1, s).toByteArray();
+    int len=(1+derLength(r.length)+r.length)+(1+derLength(s.length)+s.length);
+    byte[] der=new byte[1+derLength(len)+len];
+    i=0;
+    der[i++]=0x30;
+    i=putDerLength(der, i, len);
+    der[i++]=0x02;
+    i=putDerLength(der, i, r.length);
+    System.arraycopy(r, 0, der, i, r.length); i+=r.length;
+    der[i++]=0x02;
+    i=putDerLength(der, i, s.length);
+    System.arraycopy(s, 0, der, i, s.length);
+
+    return signature.verify(der);
+  }
+
+  private static int derLength(int len){
+    return len<0x80 ? 1 : 2;
+  }
+  private static int putDerLength(byte[] buf, int i, int len){
+    if(len>=0x80){
+      buf[i++]=(byte)0x81;
+    }
+    buf[i++]=(byte)len;
+    return i;
+  }
+  private static byte[] derInteger(byte[] buf, int i){
+    byte[] foo=new byte[buf[i+1]&0xff];
+    System.arraycopy(buf, i+2, foo, 0, foo.length);
+    return foo;
+  }
+  private static void putString(byte[] buf, int i, byte[] foo){
+    buf[i++]=(byte)(foo.length>>>24);
+    buf[i++]=(byte)(foo.length>>>16);
+    buf[i++]=(byte)(foo.length>>>8);
+    buf[i++]=(byte)(foo.length);
+    System.arraycopy(foo, 0, buf, i, foo.length);
+  }
+}
@@ -38,8 +38,14 @@ public class SignatureRSA implements com.jcraft.jsch.SignatureRSA{
   java.security.Signature signature;
   KeyFactory keyFactory;
 
+  /*
+   * The JCE name of the signature scheme; ssh-rsa uses SHA-1, the
+   * rsa-sha2-* subclasses of RFC 8332 override this.
+   */
+  String getAlgorithm(){ return "SHA1withRSA"; }
+
   public void init() throws Exception{
-    signature=java.security.Signature.getInstance("SHA1withRSA");
+    signature=java.security.Signature.getInstance(getAlgorithm());
     keyFactory=KeyFactory.getInstance("RSA");
   }     
   public void setPubKey(byte[] e, byte[] n) throws Exception{
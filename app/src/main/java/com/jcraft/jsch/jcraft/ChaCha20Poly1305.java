@@ -0,0 +1,212 @@
+/* -*-mode:java; c-basic-offset:2; indent-tabs-mode:nil -*- */
+/*
+Copyright (c) 2002-2014 ymnk, JCraft,Inc. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+  1. Redistributions of source code must retain the above copyright notice,
+     this list of conditions and the following disclaimer.
+
+  2. Redistributions in binary form must reproduce the above copyright 
+     notice, this list of conditions and the following disclaimer in 
+     the documentation and/or other materials provided with the distribution.
+
+  3. The names of the authors may not be used to endorse or promote products
+     derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL JCRAFT,
+INC. OR ANY CONTRIBUTORS TO THIS SOFTWARE BE LIABLE FOR ANY DIRECT, INDIRECT,
+INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.jcraft.jsch.jcraft;
+
+import com.jcraft.jsch.AEADCipher;
+
+/**
+ * chacha20-poly1305@openssh.com, as described in OpenSSH's
+ * PROTOCOL.chacha20poly1305.
+ * The 64 byte key holds two ChaCha20 keys: the second one only encrypts
+ * the packet length, and the first one encrypts the rest of the packet,
+ * starting with block counter 1.  Block 0 of the first key provides the
+ * Poly1305 key, and the tag is computed over the whole encrypted packet.
+ * The nonce is the packet sequence number.
+ * This is a plain Java implementation that does not allocate per packet,
+ * meant for devices whose AES is not accelerated.
+ */
+public class ChaCha20Poly1305 implements AEADCipher{
+  private static final int keysize=64;
+  private static final int tagsize=16;
+
+  private final int[] main_key=new int[8];
+  private final int[] header_key=new int[8];
+  private final int[] x=new int[16];  // one block of key stream
+  private final byte[] tag=new byte[tagsize];
+  private final Poly1305 poly=new Poly1305();
+
+  public int getIVSize(){return 0;}
+  public int getBlockSize(){return keysize;}
+  public int getTagSize(){return tagsize;}
+  public int getPaddingSize(){return 8;}
+
+  public void init(int mode, byte[] key, byte[] iv) throws Exception{
+    if(key.length<keysize){
+      throw new Exception("chacha20-poly1305 needs a "+keysize+" bytes key");
+    }
+    for(int i=0; i<8; i++){
+      main_key[i]=le32(key, i*4);
+      header_key[i]=le32(key, 32+i*4);
+    }
+  }
+
+  public void update(byte[] foo, int s1, int len, byte[] bar, int s2) throws Exception{
+    throw new Exception("chacha20-poly1305 can only process whole packets");
+  }
+
+  public int getPacketLength(int seq, byte[] buf, int s){
+    chacha20(header_key, 0, seq, x);
+    return ((buf[s  ]^(x[0]     ))&0xff)<<24|
+           ((buf[s+1]^(x[0]>>> 8))&0xff)<<16|
+           ((buf[s+2]^(x[0]>>>16))&0xff)<< 8|
+           ((buf[s+3]^(x[0]>>>24))&0xff);
+  }
+
+  public void seal(int seq, byte[] buf, int s, int len) throws Exception{
+    chacha20(header_key, 0, seq, x);
+    xor(buf, s, 4);
+    crypt(seq, buf, s+4, len-4);
+    chacha20(main_key, 0, seq, x);
+    poly.init(x);
+    poly.update(buf, s, len);
+    poly.doFinal(buf, s+len);
+  }
+
+  public boolean open(int seq, byte[] buf, int s, int len) throws Exception{
+    chacha20(main_key, 0, seq, x);
+    poly.init(x);
+    poly.update(buf, s, len);
+    poly.doFinal(tag, 0);
+    int d=0;
+    for(int i=0; i<tagsize; i++){
+      d|=tag[i]^buf[s+len+i];
+    }
+    if(d!=0){
+      return false;
+    }
+    chacha20(header_key, 0, seq, x);
+    xor(buf, s, 4);
+    crypt(seq, buf, s+4, len-4);
+    return true;
+  }
+
+  public boolean isCBC(){return false; }
+
+  private void crypt(int seq, byte[] buf, int s, int len){
+    int counter=1;
+    while(len>0){
+      chacha20(main_key, counter++, seq, x);
+      int n=len<64 ? len : 64;
+      xor(buf, s, n);
+      s+=n;
+      len-=n;
+    }
+  }
+
+  /*
+   * XORs len bytes of buf at s, at most 64, with the key stream in x.
+   */
+  private void xor(byte[] buf, int s, int len){
+    int[] _x=x;
+    int i=0;
+    for(; i+4<=len; i+=4){
+      int k=_x[i>>2];
+      buf[s+i  ]^=(byte)k;
+      buf[s+i+1]^=(byte)(k>>> 8);
+      buf[s+i+2]^=(byte)(k>>>16);
+      buf[s+i+3]^=(byte)(k>>>24);
+    }
+    for(; i<len; i++){
+      buf[s+i]^=(byte)(_x[i>>2]>>>((i&3)<<3));
+    }
+  }
+
+  /*
+   * Computes the ChaCha20 block for the given key and block counter into
+   * out.  This is the original variant with a 64 bit counter and a 64 bit
+   * nonce; the nonce is the sequence number as a big-endian uint64.
+   */
+  private static void chacha20(int[] key, int counter, int seq, int[] out){
+    int nonce=Integer.reverseBytes(seq);
+    int x0=0x61707865, x1=0x3320646e, x2=0x79622d32, x3=0x6b206574;
+    int x4=key[0], x5=key[1], x6=key[2], x7=key[3];
+    int x8=key[4], x9=key[5], x10=key[6], x11=key[7];
+    int x12=counter, x13=0, x14=0, x15=nonce;
+
+    for(int i=0; i<10; i++){
+      x0+=x4; x12^=x0; x12=(x12<<16)|(x12>>>16);
+      x8+=x12; x4^=x8; x4=(x4<<12)|(x4>>>20);
+      x0+=x4; x12^=x0; x12=(x12<<8)|(x12>>>24);
+      x8+=x12; x4^=x8; x4=(x4<<7)|(x4>>>25);
+
+      x1+=x5; x13^=x1; x13=(x13<<16)|(x13>>>16);
+      x9+=x13; x5^=x9; x5=(x5<<12)|(x5>>>20);
+      x1+=x5; x13^=x1; x13=(x13<<8)|(x13>>>24);
+      x9+=x13; x5^=x9; x5=(x5<<7)|(x5>>>25);
+
+      x2+=x6; x14^=x2; x14=(x14<<16)|(x14>>>16);
+      x10+=x14; x6^=x10; x6=(x6<<12)|(x6>>>20);
+      x2+=x6; x14^=x2; x14=(x14<<8)|(x14>>>24);
+      x10+=x14; x6^=x10; x6=(x6<<7)|(x6>>>25);
+
+      x3+=x7; x15^=x3; x15=(x15<<16)|(x15>>>16);
+      x11+=x15; x7^=x11; x7=(x7<<12)|(x7>>>20);
+      x3+=x7; x15^=x3; x15=(x15<<8)|(x15>>>24);
+      x11+=x15; x7^=x11; x7=(x7<<7)|(x7>>>25);
+
+      x0+=x5; x15^=x0; x15=(x15<<16)|(x15>>>16);
+      x10+=x15; x5^=x10; x5=(x5<<12)|(x5>>>20);
+      x0+=x5; x15^=x0; x15=(x15<<8)|(x15>>>24);
+      x10+=x15; x5^=x10; x5=(x5<<7)|(x5>>>25);
+
+      x1+=x6; x12^=x1; x12=(x12<<16)|(x12>>>16);
+      x11+=x12; x6^=x11; x6=(x6<<12)|(x6>>>20);
+      x1+=x6; x12^=x1; x12=(x12<<8)|(x12>>>24);
+      x11+=x12; x6^=x11; x6=(x6<<7)|(x6>>>25);
+
+      x2+=x7; x13^=x2; x13=(x13<<16)|(x13>>>16);
+      x8+=x13; x7^=x8; x7=(x7<<12)|(x7>>>20);
+      x2+=x7; x13^=x2; x13=(x13<<8)|(x13>>>24);
+      x8+=x13; x7^=x8; x7=(x7<<7)|(x7>>>25);
+
+      x3+=x4; x14^=x3; x14=(x14<<16)|(x14>>>16);
+      x9+=x14; x4^=x9; x4=(x4<<12)|(x4>>>20);
+      x3+=x4; x14^=x3; x14=(x14<<8)|(x14>>>24);
+      x9+=x14; x4^=x9; x4=(x4<<7)|(x4>>>25);
+    }
+
+    out[0]=x0+0x61707865; out[1]=x1+0x3320646e;
+    out[2]=x2+0x79622d32; out[3]=x3+0x6b206574;
+    out[4]=x4+key[0]; out[5]=x5+key[1]; out[6]=x6+key[2]; out[7]=x7+key[3];
+    out[8]=x8+key[4]; out[9]=x9+key[5]; out[10]=x10+key[6]; out[11]=x11+key[7];
+    out[12]=x12+counter; out[13]=x13; out[14]=x14; out[15]=x15+nonce;
+  }
+
+  static int le32(byte[] b, int o){
+    return (b[o]&0xff)|((b[o+1]&0xff)<<8)|((b[o+2]&0xff)<<16)|((b[o+3]&0xff)<<24);
+  }
+
+  static void putLe32(byte[] b, int o, int v){
+    b[o]=(byte)v;
+    b[o+1]=(byte)(v>>>8);
+    b[o+2]=(byte)(v>>>16);
+    b[o+3]=(byte)(v>>>24);
+  }
+}
@@ -121,7 +121,11 @@ public class Compression implements com.jcraft.jsch.Compression {
 	  break;
         case JZlib.Z_BUF_ERROR:
           if(inflated_end>buffer.length-start){
-            byte[] foo=new byte[inflated_end+start];
+            // leave room so that following packets can be inflated in place
+            int len=buffer.length*2;
+            if(len<inflated_end+start+buffer_margin)
+              len=inflated_end+start+buffer_margin;
+            byte[] foo=new byte[len];
             System.arraycopy(buffer, 0, foo, 0, start);
             System.arraycopy(inflated_buf, 0, foo, start, inflated_end);
 	    buffer=foo;
@@ -0,0 +1,369 @@
+/* -*-mode:java; c-basic-offset:2; indent-tabs-mode:nil -*- */
+/*
+Copyright (c) 2002-2014 ymnk, JCraft,Inc. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+  1. Redistributions of source code must retain the above copyright notice,
+     this list of conditions and the following disclaimer.
+
+  2. Redistributions in binary form must reproduce the above copyright 
+     notice, this list of conditions and the following disclaimer in 
+     the documentation and/or other materials provided with the distribution.
+
+  3. The names of the authors may not be used to endorse or promote products
+     derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL JCRAFT,
+INC. OR ANY CONTRIBUTORS TO THIS SOFTWARE BE LIABLE FOR ANY DIRECT, INDIRECT,
+INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.jcraft.jsch.jcraft;
+
+import java.security.MessageDigest;
+
+/*
+ * Ed25519 as specified in RFC 8032 5.1.  Points are kept in extended
+ * twisted Edwards coordinates (X:Y:Z:T) with x=X/Z, y=Y/Z and xy=T/Z.
+ * The scalar multiplications that involve the private key are constant
+ * time; verify() only handles public data.
+ */
+final class Ed25519{
+  private Ed25519(){}
+
+  private static final int[] d=Field25519.create();
+  private static final int[] d2=Field25519.create();
+  private static final int[] sqrtm1=Field25519.create();
+  private static final Point B;
+
+  // L=2^252+27742317777372353535851937790883648493, little endian
+  private static final long[] L={
+    0xed, 0xd3, 0xf5, 0x5c, 0x1a, 0x63, 0x12, 0x58,
+    0xd6, 0x9c, 0xf7, 0xa2, 0xde, 0xf9, 0xde, 0x14,
+    0, 0, 0, 0, 0, 0, 0, 0,
+    0, 0, 0, 0, 0, 0, 0, 0x10
+  };
+
+  static{
+    Field25519.fromBytes(d, hex("a3785913ca4deb75abd841414d0a700098e879777940c78c73fe6f2bee6c0352"), 0);
+    Field25519.add(d2, d, d);
+    Field25519.fromBytes(sqrtm1, hex("b0a00e4a271beec478e42fad0618432fa7d7fb3d99004d2b0bdfc14f8024832b"), 0);
+    B=decode(hex("5866666666666666666666666666666666666666666666666666666666666666"));
+  }
+
+  static final class Point{
+    final int[] X=Field25519.create();
+    final int[] Y=Field25519.create();
+    final int[] Z=Field25519.create();
+    final int[] T=Field25519.create();
+
+    void setNeutral(){
+      Field25519.zero(X);
+      Field25519.one(Y);
+      Field25519.one(Z);
+      Field25519.zero(T);
+    }
+
+    void set(Point p){
+      Field25519.copy(X, p.X);
+      Field25519.copy(Y, p.Y);
+      Field25519.copy(Z, p.Z);
+      Field25519.copy(T, p.T);
+    }
+
+    void cmov(Point p, int b){
+      Field25519.cmov(X, p.X, b);
+      Field25519.cmov(Y, p.Y, b);
+      Field25519.cmov(Z, p.Z, b);
+      Field25519.cmov(T, p.T, b);
+    }
+  }
+
+  /*
+   * Scratch space for add() and dbl(), so that the ladders below do not
+   * allocate on every step.
+   */
+  private static final class Temp{
+    final int[] a=Field25519.create();
+    final int[] b=Field25519.create();
+    final int[] c=Field25519.create();
+    final int[] d=Field25519.create();
+    final int[] e=Field25519.create();
+    final int[] f=Field25519.create();
+    final int[] g=Field25519.create();
+    final int[] h=Field25519.create();
+  }
+
+  /*
+   * r=p+q, with the complete addition law for a=-1 (RFC 8032 5.1.4).
+   * r may be the same object as p or q.
+   */
+  private static void add(Point r, Point p, Point q, Temp t){
+    Field25519.sub(t.a, p.Y, p.X);
+    Field25519.sub(t.h, q.Y, q.X);
+    Field25519.mul(t.a, t.a, t.h);        // A=(Y1-X1)*(Y2-X2)
+    Field25519.add(t.b, p.Y, p.X);
+    Field25519.add(t.h, q.Y, q.X);
+    Field25519.mul(t.b, t.b, t.h);        // B=(Y1+X1)*(Y2+X2)
+    Field25519.mul(t.c, p.T, d2);
+    Field25519.mul(t.c, t.c, q.T);        // C=T1*2*d*T2
+    Field25519.mul(t.d, p.Z, q.Z);
+    Field25519.add(t.d, t.d, t.d);        // D=Z1*2*Z2
+    Field25519.sub(t.e, t.b, t.a);        // E=B-A
+    Field25519.sub(t.f, t.d, t.c);        // F=D-C
+    Field25519.add(t.g, t.d, t.c);        // G=D+C
+    Field25519.add(t.h, t.b, t.a);        // H=B+A
+    Field25519.mul(r.X, t.e, t.f);
+    Field25519.mul(r.Y, t.g, t.h);
+    Field25519.mul(r.T, t.e, t.h);
+    Field25519.mul(r.Z, t.f, t.g);
+  }
+
+  /*
+   * r=2p (RFC 8032 5.1.4).
+   */
+  private static void dbl(Point r, Point p, Temp t){
+    Field25519.sq(t.a, p.X);              // A=X1^2
+    Field25519.sq(t.b, p.Y);              // B=Y1^2
+    Field25519.sq(t.c, p.Z);
+    Field25519.add(t.c, t.c, t.c);        // C=2*Z1^2
+    Field25519.add(t.h, t.a, t.b);        // H=A+B
+    Field25519.add(t.e, p.X, p.Y);
+    Field25519.sq(t.e, t.e);
+    Field25519.sub(t.e, t.h, t.e);        // E=H-(X1+Y1)^2
+    Field25519.sub(t.g, t.a, t.b);        // G=A-B
+    Field25519.add(t.f, t.c, t.g);        // F=C+G
+    Field25519.mul(r.X, t.e, t.f);
+    Field25519.mul(r.Y, t.g, t.h);
+    Field25519.mul(r.T, t.e, t.h);
+    Field25519.mul(r.Z, t.f, t.g);
+  }
+
+  /*
+   * r=[s]p for a 32 byte little endian scalar, always doing the addition
+   * and keeping it with cmov so the timing does not depend on s.
+   */
+  private static void scalarMult(Point r, byte[] s, Point p){
+    Temp t=new Temp();
+    Point q=new Point();
+    r.setNeutral();
+    for(int i=255; i>=0; i--){
+      dbl(r, r, t);
+      add(q, r, p, t);
+      r.cmov(q, (s[i>>3]>>(i&7))&1);
+    }
+  }
+
+  static byte[] encode(Point p){
+    int[] zi=Field25519.create();
+    int[] x=Field25519.create();
+    int[] y=Field25519.create();
+    Field25519.invert(zi, p.Z);
+    Field25519.mul(x, p.X, zi);
+    Field25519.mul(y, p.Y, zi);
+    byte[] s=new byte[32];
+    Field25519.toBytes(s, 0, y);
+    s[31]|=(byte)(Field25519.isNegative(x)<<7);
+    return s;
+  }
+
+  /*
+   * Recovers x from y and the sign bit (RFC 8032 5.1.3), or returns null
+   * if s is not the encoding of a point.
+   */
+  static Point decode(byte[] s){
+    // reject a non-canonical y, i.e. y>=p
+    int top=s[31]&0x7f;
+    if(top==0x7f){
+      boolean ones=true;
+      for(int i=30; i>0; i--){
+        if(s[i]!=(byte)0xff){ ones=false; break; }
+      }
+      if(ones && (s[0]&0xff)>=0xed) return null;
+    }
+
+    Point p=new Point();
+    int[] u=Field25519.create();
+    int[] v=Field25519.create();
+    int[] v3=Field25519.create();
+    int[] t=Field25519.create();
+
+    Field25519.fromBytes(p.Y, s, 0);
+    Field25519.one(p.Z);
+    Field25519.sq(u, p.Y);
+    Field25519.mul(v, u, d);
+    Field25519.sub(u, u, p.Z);            // u=y^2-1
+    Field25519.add(v, v, p.Z);            // v=d*y^2+1
+
+    Field25519.sq(v3, v);
+    Field25519.mul(v3, v3, v);            // v^3
+    Field25519.sq(p.X, v3);
+    Field25519.mul(p.X, p.X, v);
+    Field25519.mul(p.X, p.X, u);          // u*v^7
+    Field25519.pow22523(p.X, p.X);
+    Field25519.mul(p.X, p.X, v3);
+    Field25519.mul(p.X, p.X, u);          // x=u*v^3*(u*v^7)^((p-5)/8)
+
+    Field25519.sq(t, p.X);
+    Field25519.mul(t, t, v);              // v*x^2
+    Field25519.sub(v3, t, u);
+    if(!Field25519.isZero(v3)){
+      Field25519.add(v3, t, u);
+      if(!Field25519.isZero(v3)) return null;
+      Field25519.mul(p.X, p.X, sqrtm1);
+    }
+
+    int sign=(s[31]>>7)&1;
+    if(Field25519.isZero(p.X) && sign==1) return null;
+    if(Field25519.isNegative(p.X)!=sign){
+      Field25519.neg(p.X, p.X);
+    }
+    Field25519.mul(p.T, p.X, p.Y);
+    return p;
+  }
+
+  /*
+   * Reduces the 64 limb number x (each limb nominally a byte) modulo L
+   * into r[o..o+32], as in TweetNaCl.
+   */
+  private static void modL(byte[] r, int o, long[] x){
+    long carry;
+    int i, j;
+    for(i=63; i>=32; i--){
+      carry=0;
+      for(j=i-32; j<i-12; j++){
+        x[j]+=carry-16*x[i]*L[j-(i-32)];
+        carry=(x[j]+128)>>8;
+        x[j]-=carry<<8;
+      }
+      x[j]+=carry;
+      x[i]=0;
+    }
+    carry=0;
+    for(j=0; j<32; j++){
+      x[j]+=carry-(x[31]>>4)*L[j];
+      carry=x[j]>>8;
+      x[j]&=255;
+    }
+    for(j=0; j<32; j++){
+      x[j]-=carry*L[j];
+    }
+    for(i=0; i<32; i++){
+      x[i+1]+=x[i]>>8;
+      r[o+i]=(byte)(x[i]&255);
+    }
+  }
+
+  private static byte[] reduce(byte[] h){
+    long[] x=new long[64];
+    for(int i=0; i<64; i++) x[i]=h[i]&0xff;
+    byte[] r=new byte[32];
+    modL(r, 0, x);
+    return r;
+  }
+
+  /*
+   * Expands the 32 byte seed into the clamped secret scalar a and the
+   * nonce prefix, SHA-512(seed)=a||prefix.
+   */
+  private static byte[] expand(byte[] seed) throws Exception{
+    byte[] h=MessageDigest.getInstance("SHA-512").digest(seed);
+    h[0]&=(byte)248;
+    h[31]&=63;
+    h[31]|=64;
+    return h;
+  }
+
+  static byte[] publicKey(byte[] seed) throws Exception{
+    byte[] h=expand(seed);
+    Point A=new Point();
+    scalarMult(A, h, B);
+    return encode(A);
+  }
+
+  static byte[] sign(byte[] seed, byte[] pub, byte[] m) throws Exception{
+    byte[] h=expand(seed);
+    MessageDigest sha512=MessageDigest.getInstance("SHA-512");
+
+    sha512.update(h, 32, 32);
+    sha512.update(m);
+    byte[] r=reduce(sha512.digest());
+
+    Point R=new Point();
+    scalarMult(R, r, B);
+    byte[] sig=new byte[64];
+    System.arraycopy(encode(R), 0, sig, 0, 32);
+
+    sha512.update(sig, 0, 32);
+    sha512.update(pub);
+    sha512.update(m);
+    byte[] k=reduce(sha512.digest());
+
+    // S=(r+k*a) mod L
+    long[] x=new long[64];
+    for(int i=0; i<32; i++) x[i]=r[i]&0xff;
+    for(int i=0; i<32; i++){
+      for(int j=0; j<32; j++){
+        x[i+j]+=(long)(k[i]&0xff)*(h[j]&0xff);
+      }
+    }
+    modL(sig, 32, x);
+    return sig;
+  }
+
+  static boolean verify(byte[] pub, byte[] m, byte[] sig) throws Exception{
+    if(pub.length!=32 || sig.length!=64) return false;
+
+    // S must be below L
+    for(int i=31; i>=0; i--){
+      int a=sig[32+i]&0xff;
+      int b=(int)L[i];
+      if(a<b) break;
+      if(a>b || i==0) return false;
+    }
+
+    Point A=decode(pub);
+    if(A==null) return false;
+    byte[] Rb=new byte[32];
+    System.arraycopy(sig, 0, Rb, 0, 32);
+
+    MessageDigest sha512=MessageDigest.getInstance("SHA-512");
+    sha512.update(Rb);
+    sha512.update(pub);
+    sha512.update(m);
+    byte[] k=reduce(sha512.digest());
+    byte[] s=new byte[32];
+    System.arraycopy(sig, 32, s, 0, 32);
+
+    // check [S]B-[k]A == R
+    Field25519.neg(A.X, A.X);
+    Field25519.neg(A.T, A.T);
+    Point sB=new Point();
+    Point kA=new Point();
+    scalarMult(sB, s, B);
+    scalarMult(kA, k, A);
+    add(sB, sB, kA, new Temp());
+    byte[] check=encode(sB);
+
+    int diff=0;
+    for(int i=0; i<32; i++) diff|=check[i]^Rb[i];
+    return diff==0;
+  }
+
+  private static byte[] hex(String s){
+    byte[] b=new byte[s.length()/2];
+    for(int i=0; i<b.length; i++){
+      b[i]=(byte)Integer.parseInt(s.substring(2*i, 2*i+2), 16);
+    }
+    return b;
+  }
+}
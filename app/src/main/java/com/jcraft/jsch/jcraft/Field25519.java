@@ -0,0 +1,302 @@
+/* -*-mode:java; c-basic-offset:2; indent-tabs-mode:nil -*- */
+/*
+Copyright (c) 2002-2014 ymnk, JCraft,Inc. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+  1. Redistributions of source code must retain the above copyright notice,
+     this list of conditions and the following disclaimer.
+
+  2. Redistributions in binary form must reproduce the above copyright 
+     notice, this list of conditions and the following disclaimer in 
+     the documentation and/or other materials provided with the distribution.
+
+  3. The names of the authors may not be used to endorse or promote products
+     derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL JCRAFT,
+INC. OR ANY CONTRIBUTORS TO THIS SOFTWARE BE LIABLE FOR ANY DIRECT, INDIRECT,
+INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.jcraft.jsch.jcraft;
+
+/*
+ * Arithmetic modulo p=2^255-19 for X25519 and Ed25519.
+ * An element is an int[10] holding alternately 26 and 25 bit limbs, as in
+ * the ref10 implementation, so that a product of two elements is a sum of
+ * 64 bit products that can not overflow.  After mul(), sq() and mul121665()
+ * the limbs are reduced to at most 2^25 or 2^24 in absolute value, and a
+ * sum or difference of up to four such elements may be multiplied again
+ * without a carry.  Nothing allocates except invert(), pow22523() and the
+ * byte conversions.
+ */
+final class Field25519{
+  private Field25519(){}
+
+  static int[] create(){ return new int[10]; }
+
+  static void zero(int[] h){
+    for(int i=0; i<10; i++) h[i]=0;
+  }
+
+  static void one(int[] h){
+    zero(h);
+    h[0]=1;
+  }
+
+  static void copy(int[] h, int[] f){
+    System.arraycopy(f, 0, h, 0, 10);
+  }
+
+  static void add(int[] h, int[] f, int[] g){
+    for(int i=0; i<10; i++) h[i]=f[i]+g[i];
+  }
+
+  static void sub(int[] h, int[] f, int[] g){
+    for(int i=0; i<10; i++) h[i]=f[i]-g[i];
+  }
+
+  static void neg(int[] h, int[] f){
+    for(int i=0; i<10; i++) h[i]=-f[i];
+  }
+
+  /*
+   * Sets f to g if b is 1, and leaves it alone if it is 0, in constant
+   * time.
+   */
+  static void cmov(int[] f, int[] g, int b){
+    b=-b;
+    for(int i=0; i<10; i++){
+      f[i]^=(f[i]^g[i])&b;
+    }
+  }
+
+  /*
+   * Swaps f and g if b is 1, and leaves them alone if it is 0, in constant
+   * time.
+   */
+  static void cswap(int[] f, int[] g, int b){
+    b=-b;
+    for(int i=0; i<10; i++){
+      int x=(f[i]^g[i])&b;
+      f[i]^=x;
+      g[i]^=x;
+    }
+  }
+
+  static void mul(int[] h, int[] f, int[] g){
+    long f0=f[0]; long f1=f[1]; long f2=f[2]; long f3=f[3]; long f4=f[4];
+    long f5=f[5]; long f6=f[6]; long f7=f[7]; long f8=f[8]; long f9=f[9];
+    long g0=g[0]; long g1=g[1]; long g2=g[2]; long g3=g[3]; long g4=g[4];
+    long g5=g[5]; long g6=g[6]; long g7=g[7]; long g8=g[8]; long g9=g[9];
+    long h0=f0*g0+f1*38*g9+f2*19*g8+f3*38*g7+f4*19*g6+f5*38*g5+f6*19*g4
+          +f7*38*g3+f8*19*g2+f9*38*g1;
+    long h1=f0*g1+f1*g0+f2*19*g9+f3*19*g8+f4*19*g7+f5*19*g6+f6*19*g5
+          +f7*19*g4+f8*19*g3+f9*19*g2;
+    long h2=f0*g2+f1*2*g1+f2*g0+f3*38*g9+f4*19*g8+f5*38*g7+f6*19*g6
+          +f7*38*g5+f8*19*g4+f9*38*g3;
+    long h3=f0*g3+f1*g2+f2*g1+f3*g0+f4*19*g9+f5*19*g8+f6*19*g7+f7*19*g6
+          +f8*19*g5+f9*19*g4;
+    long h4=f0*g4+f1*2*g3+f2*g2+f3*2*g1+f4*g0+f5*38*g9+f6*19*g8+f7*38*g7
+          +f8*19*g6+f9*38*g5;
+    long h5=f0*g5+f1*g4+f2*g3+f3*g2+f4*g1+f5*g0+f6*19*g9+f7*19*g8+f8*19*g7
+          +f9*19*g6;
+    long h6=f0*g6+f1*2*g5+f2*g4+f3*2*g3+f4*g2+f5*2*g1+f6*g0+f7*38*g9
+          +f8*19*g8+f9*38*g7;
+    long h7=f0*g7+f1*g6+f2*g5+f3*g4+f4*g3+f5*g2+f6*g1+f7*g0+f8*19*g9
+          +f9*19*g8;
+    long h8=f0*g8+f1*2*g7+f2*g6+f3*2*g5+f4*g4+f5*2*g3+f6*g2+f7*2*g1+f8*g0
+          +f9*38*g9;
+    long h9=f0*g9+f1*g8+f2*g7+f3*g6+f4*g5+f5*g4+f6*g3+f7*g2+f8*g1+f9*g0;
+    carry(h, h0, h1, h2, h3, h4, h5, h6, h7, h8, h9);
+  }
+
+  static void sq(int[] h, int[] f){
+    long f0=f[0]; long f1=f[1]; long f2=f[2]; long f3=f[3]; long f4=f[4];
+    long f5=f[5]; long f6=f[6]; long f7=f[7]; long f8=f[8]; long f9=f[9];
+    long h0=f0*f0+f1*76*f9+f2*38*f8+f3*76*f7+f4*38*f6+f5*38*f5;
+    long h1=f0*2*f1+f2*38*f9+f3*38*f8+f4*38*f7+f5*38*f6;
+    long h2=f0*2*f2+f1*2*f1+f3*76*f9+f4*38*f8+f5*76*f7+f6*19*f6;
+    long h3=f0*2*f3+f1*2*f2+f4*38*f9+f5*38*f8+f6*38*f7;
+    long h4=f0*2*f4+f1*4*f3+f2*f2+f5*76*f9+f6*38*f8+f7*38*f7;
+    long h5=f0*2*f5+f1*2*f4+f2*2*f3+f6*38*f9+f7*38*f8;
+    long h6=f0*2*f6+f1*4*f5+f2*2*f4+f3*2*f3+f7*76*f9+f8*19*f8;
+    long h7=f0*2*f7+f1*2*f6+f2*2*f5+f3*2*f4+f8*38*f9;
+    long h8=f0*2*f8+f1*4*f7+f2*2*f6+f3*4*f5+f4*f4+f9*38*f9;
+    long h9=f0*2*f9+f1*2*f8+f2*2*f7+f3*2*f6+f4*2*f5;
+    carry(h, h0, h1, h2, h3, h4, h5, h6, h7, h8, h9);
+  }
+
+  /*
+   * h=f*121665, the (A-2)/4 constant of the Montgomery ladder.
+   */
+  static void mul121665(int[] h, int[] f){
+    carry(h, f[0]*121665L, f[1]*121665L, f[2]*121665L, f[3]*121665L,
+          f[4]*121665L, f[5]*121665L, f[6]*121665L, f[7]*121665L,
+          f[8]*121665L, f[9]*121665L);
+  }
+
+  private static void carry(int[] h, long h0, long h1, long h2, long h3,
+                            long h4, long h5, long h6, long h7, long h8,
+                            long h9){
+    long c;
+    c=(h0+(1L<<25))>>26; h1+=c; h0-=c<<26;
+    c=(h4+(1L<<25))>>26; h5+=c; h4-=c<<26;
+    c=(h1+(1L<<24))>>25; h2+=c; h1-=c<<25;
+    c=(h5+(1L<<24))>>25; h6+=c; h5-=c<<25;
+    c=(h2+(1L<<25))>>26; h3+=c; h2-=c<<26;
+    c=(h6+(1L<<25))>>26; h7+=c; h6-=c<<26;
+    c=(h3+(1L<<24))>>25; h4+=c; h3-=c<<25;
+    c=(h7+(1L<<24))>>25; h8+=c; h7-=c<<25;
+    c=(h4+(1L<<25))>>26; h5+=c; h4-=c<<26;
+    c=(h8+(1L<<25))>>26; h9+=c; h8-=c<<26;
+    c=(h9+(1L<<24))>>25; h0+=c*19; h9-=c<<25;
+    c=(h0+(1L<<25))>>26; h1+=c; h0-=c<<26;
+    h[0]=(int)h0; h[1]=(int)h1; h[2]=(int)h2; h[3]=(int)h3; h[4]=(int)h4;
+    h[5]=(int)h5; h[6]=(int)h6; h[7]=(int)h7; h[8]=(int)h8; h[9]=(int)h9;
+  }
+
+  private static void sqn(int[] h, int[] f, int n){
+    sq(h, f);
+    for(int i=1; i<n; i++) sq(h, h);
+  }
+
+  /*
+   * h=z^(p-2)=1/z, with the usual chain of 254 squarings and 11
+   * multiplications.
+   */
+  static void invert(int[] h, int[] z){
+    int[] t0=new int[10], t1=new int[10], t2=new int[10], t3=new int[10];
+    sq(t0, z);                    // 2
+    sqn(t1, t0, 2);               // 8
+    mul(t1, z, t1);               // 9
+    mul(t0, t0, t1);              // 11
+    sq(t2, t0);                   // 22
+    mul(t1, t1, t2);              // 2^5-1
+    sqn(t2, t1, 5);
+    mul(t1, t2, t1);              // 2^10-1
+    sqn(t2, t1, 10);
+    mul(t2, t2, t1);              // 2^20-1
+    sqn(t3, t2, 20);
+    mul(t2, t3, t2);              // 2^40-1
+    sqn(t2, t2, 10);
+    mul(t1, t2, t1);              // 2^50-1
+    sqn(t2, t1, 50);
+    mul(t2, t2, t1);              // 2^100-1
+    sqn(t3, t2, 100);
+    mul(t2, t3, t2);              // 2^200-1
+    sqn(t2, t2, 50);
+    mul(t1, t2, t1);              // 2^250-1
+    sqn(t1, t1, 5);               // 2^255-32
+    mul(h, t1, t0);               // 2^255-21
+  }
+
+  /*
+   * h=z^((p-5)/8)=z^(2^252-3), the exponent used to take square roots
+   * when decoding an Ed25519 point.
+   */
+  static void pow22523(int[] h, int[] z){
+    int[] t0=new int[10], t1=new int[10], t2=new int[10];
+    sq(t0, z);                    // 2
+    sqn(t1, t0, 2);               // 8
+    mul(t1, z, t1);               // 9
+    mul(t0, t0, t1);              // 11
+    sq(t0, t0);                   // 22
+    mul(t0, t1, t0);              // 2^5-1
+    sqn(t1, t0, 5);
+    mul(t0, t1, t0);              // 2^10-1
+    sqn(t1, t0, 10);
+    mul(t1, t1, t0);              // 2^20-1
+    sqn(t2, t1, 20);
+    mul(t1, t2, t1);              // 2^40-1
+    sqn(t1, t1, 10);
+    mul(t0, t1, t0);              // 2^50-1
+    sqn(t1, t0, 50);
+    mul(t1, t1, t0);              // 2^100-1
+    sqn(t2, t1, 100);
+    mul(t1, t2, t1);              // 2^200-1
+    sqn(t1, t1, 50);
+    mul(t0, t1, t0);              // 2^250-1
+    sqn(t0, t0, 2);               // 2^252-4
+    mul(h, t0, z);                // 2^252-3
+  }
+
+  /*
+   * The sign of f, that is the low bit of its reduced value.
+   */
+  static int isNegative(int[] f){
+    byte[] s=new byte[32];
+    toBytes(s, 0, f);
+    return s[0]&1;
+  }
+
+  static boolean isZero(int[] f){
+    byte[] s=new byte[32];
+    toBytes(s, 0, f);
+    int d=0;
+    for(int i=0; i<32; i++) d|=s[i];
+    return d==0;
+  }
+
+  private static final int[] width={26, 25, 26, 25, 26, 25, 26, 25, 26, 25};
+
+  /*
+   * Loads 32 little-endian bytes, ignoring the top bit.
+   */
+  static void fromBytes(int[] h, byte[] s, int o){
+    int bit=0;
+    for(int i=0; i<10; i++){
+      long v=0;
+      for(int b=0; b<width[i]; b++, bit++){
+        v|=(long)((s[o+(bit>>3)]>>(bit&7))&1)<<b;
+      }
+      h[i]=(int)v;
+    }
+  }
+
+  /*
+   * Stores the fully reduced value as 32 little-endian bytes.
+   */
+  static void toBytes(byte[] s, int o, int[] h){
+    long[] t=new long[10];
+    for(int i=0; i<10; i++) t[i]=h[i];
+    // bring every limb into [0, 2^width), folding the top into t[0]
+    long c;
+    do{
+      for(int i=0; i<9; i++){
+        c=t[i]>>width[i];
+        t[i]-=c<<width[i];
+        t[i+1]+=c;
+      }
+      c=t[9]>>25;
+      t[9]-=c<<25;
+      t[0]+=c*19;
+    }while(c!=0);
+    // now 0<=t<2^255; subtract p once if t>=p, i.e. if t+19>=2^255
+    long q=19;
+    for(int i=0; i<10; i++) q=(t[i]+q)>>width[i];
+    t[0]+=19*q;
+    for(int i=0; i<9; i++){
+      c=t[i]>>width[i];
+      t[i]-=c<<width[i];
+      t[i+1]+=c;
+    }
+    t[9]&=(1L<<25)-1;
+    for(int i=0; i<32; i++) s[o+i]=0;
+    int bit=0;
+    for(int i=0; i<10; i++){
+      for(int b=0; b<width[i]; b++, bit++){
+        s[o+(bit>>3)]|=(byte)(((t[i]>>b)&1)<<(bit&7));
+      }
+    }
+  }
+}
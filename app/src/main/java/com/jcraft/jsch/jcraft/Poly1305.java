@@ -0,0 +1,149 @@
+/* -*-mode:java; c-basic-offset:2; indent-tabs-mode:nil -*- */
+/*
+Copyright (c) 2002-2014 ymnk, JCraft,Inc. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+  1. Redistributions of source code must retain the above copyright notice,
+     this list of conditions and the following disclaimer.
+
+  2. Redistributions in binary form must reproduce the above copyright 
+     notice, this list of conditions and the following disclaimer in 
+     the documentation and/or other materials provided with the distribution.
+
+  3. The names of the authors may not be used to endorse or promote products
+     derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL JCRAFT,
+INC. OR ANY CONTRIBUTORS TO THIS SOFTWARE BE LIABLE FOR ANY DIRECT, INDIRECT,
+INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.jcraft.jsch.jcraft;
+
+/*
+ * Poly1305 one-time authenticator, see RFC 7539 2.5.
+ * The 130 bit accumulator is kept in five 26 bit limbs, so that all the
+ * products fit in a long, and nothing is allocated once constructed.
+ */
+class Poly1305{
+  private static final long M26=0x3ffffffL;
+
+  private long r0, r1, r2, r3, r4;
+  private long s1, s2, s3, s4;
+  private long h0, h1, h2, h3, h4;
+  private int k0, k1, k2, k3;   // the "s" half of the key
+  private final int[] last=new int[4];
+
+  /*
+   * Starts a new tag with the 32 byte one-time key given as eight
+   * little-endian words.
+   */
+  void init(int[] key){
+    int w0=key[0], w1=key[1], w2=key[2], w3=key[3];
+    r0=(w0                 )&0x3ffffff;
+    r1=((w0>>>26)|(w1<< 6))&0x3ffff03;
+    r2=((w1>>>20)|(w2<<12))&0x3ffc0ff;
+    r3=((w2>>>14)|(w3<<18))&0x3f03fff;
+    r4=((w3>>> 8)         )&0x00fffff;
+    s1=r1*5; s2=r2*5; s3=r3*5; s4=r4*5;
+    h0=h1=h2=h3=h4=0;
+    k0=key[4]; k1=key[5]; k2=key[6]; k3=key[7];
+  }
+
+  /*
+   * Must be called once per tag; only the last chunk may have a length
+   * which is not a multiple of 16.
+   */
+  void update(byte[] buf, int s, int len){
+    while(len>=16){
+      block(ChaCha20Poly1305.le32(buf, s),
+            ChaCha20Poly1305.le32(buf, s+4),
+            ChaCha20Poly1305.le32(buf, s+8),
+            ChaCha20Poly1305.le32(buf, s+12),
+            1<<24);
+      s+=16;
+      len-=16;
+    }
+    if(len>0){
+      // the last block is padded with a single 1 bit
+      int[] m=last;
+      m[0]=m[1]=m[2]=m[3]=0;
+      int i=0;
+      for(; i<len; i++){
+        m[i>>2]|=(buf[s+i]&0xff)<<((i&3)<<3);
+      }
+      m[i>>2]|=1<<((i&3)<<3);
+      block(m[0], m[1], m[2], m[3], 0);
+    }
+  }
+
+  private void block(int m0, int m1, int m2, int m3, int hibit){
+    long _h0=h0+((m0                 )&M26);
+    long _h1=h1+(((m0>>>26)|(m1<< 6))&M26);
+    long _h2=h2+(((m1>>>20)|(m2<<12))&M26);
+    long _h3=h3+(((m2>>>14)|(m3<<18))&M26);
+    long _h4=h4+((m3>>>8)|hibit);
+
+    long d0=_h0*r0+_h1*s4+_h2*s3+_h3*s2+_h4*s1;
+    long d1=_h0*r1+_h1*r0+_h2*s4+_h3*s3+_h4*s2;
+    long d2=_h0*r2+_h1*r1+_h2*r0+_h3*s4+_h4*s3;
+    long d3=_h0*r3+_h1*r2+_h2*r1+_h3*r0+_h4*s4;
+    long d4=_h0*r4+_h1*r3+_h2*r2+_h3*r1+_h4*r0;
+
+    long c;
+    c=d0>>>26; _h0=d0&M26; d1+=c;
+    c=d1>>>26; _h1=d1&M26; d2+=c;
+    c=d2>>>26; _h2=d2&M26; d3+=c;
+    c=d3>>>26; _h3=d3&M26; d4+=c;
+    c=d4>>>26; _h4=d4&M26; _h0+=c*5;
+    c=_h0>>>26; _h0&=M26; _h1+=c;
+
+    h0=_h0; h1=_h1; h2=_h2; h3=_h3; h4=_h4;
+  }
+
+  /*
+   * Writes the 16 byte tag at out[o].
+   */
+  void doFinal(byte[] out, int o){
+    long _h0=h0, _h1=h1, _h2=h2, _h3=h3, _h4=h4;
+    long c;
+    c=_h1>>>26; _h1&=M26; _h2+=c;
+    c=_h2>>>26; _h2&=M26; _h3+=c;
+    c=_h3>>>26; _h3&=M26; _h4+=c;
+    c=_h4>>>26; _h4&=M26; _h0+=c*5;
+    c=_h0>>>26; _h0&=M26; _h1+=c;
+
+    // h-p, with p=2^130-5; keep it if it is not negative
+    long g0=_h0+5; c=g0>>>26; g0&=M26;
+    long g1=_h1+c; c=g1>>>26; g1&=M26;
+    long g2=_h2+c; c=g2>>>26; g2&=M26;
+    long g3=_h3+c; c=g3>>>26; g3&=M26;
+    long g4=_h4+c-(1L<<26);
+    long mask=(g4>>>63)-1;
+    _h0=(_h0&~mask)|(g0&mask);
+    _h1=(_h1&~mask)|(g1&mask);
+    _h2=(_h2&~mask)|(g2&mask);
+    _h3=(_h3&~mask)|(g3&mask);
+    _h4=(_h4&~mask)|(g4&mask);
+
+    long f;
+    f=((_h0     )|(_h1<<26))&0xffffffffL;
+    f+=k0&0xffffffffL;
+    ChaCha20Poly1305.putLe32(out, o, (int)f);
+    f=(f>>>32)+((((_h1>>> 6)|(_h2<<20))&0xffffffffL)+(k1&0xffffffffL));
+    ChaCha20Poly1305.putLe32(out, o+4, (int)f);
+    f=(f>>>32)+((((_h2>>>12)|(_h3<<14))&0xffffffffL)+(k2&0xffffffffL));
+    ChaCha20Poly1305.putLe32(out, o+8, (int)f);
+    f=(f>>>32)+((((_h3>>>18)|(_h4<< 8))&0xffffffffL)+(k3&0xffffffffL));
+    ChaCha20Poly1305.putLe32(out, o+12, (int)f);
+  }
+}
@@ -0,0 +1,82 @@
+/* -*-mode:java; c-basic-offset:2; indent-tabs-mode:nil -*- */
+/*
+Copyright (c) 2002-2014 ymnk, JCraft,Inc. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+  1. Redistributions of source code must retain the above copyright notice,
+     this list of conditions and the following disclaimer.
+
+  2. Redistributions in binary form must reproduce the above copyright 
+     notice, this list of conditions and the following disclaimer in 
+     the documentation and/or other materials provided with the distribution.
+
+  3. The names of the authors may not be used to endorse or promote products
+     derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL JCRAFT,
+INC. OR ANY CONTRIBUTORS TO THIS SOFTWARE BE LIABLE FOR ANY DIRECT, INDIRECT,
+INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.jcraft.jsch.jcraft;
+
+import java.io.ByteArrayOutputStream;
+
+/*
+ * ssh-ed25519 (RFC 8709).  Ed25519 hashes the whole message twice, so
+ * update() only collects it and the work is done in sign() or verify().
+ */
+public class SignatureEd25519 implements com.jcraft.jsch.SignatureEdDSA{
+
+  private ByteArrayOutputStream message;
+  private byte[] seed;
+  private byte[] pub;
+
+  public void init() throws Exception{
+    message=new ByteArrayOutputStream();
+  }
+  public void setPubKey(byte[] pub) throws Exception{
+    this.pub=pub;
+  }
+  public void setPrvKey(byte[] seed, byte[] pub) throws Exception{
+    this.seed=seed;
+    this.pub=pub;
+  }
+  public byte[] sign() throws Exception{
+    byte[] m=message.toByteArray();
+    message.reset();
+    return Ed25519.sign(seed, pub, m);
+  }
+  public void update(byte[] foo) throws Exception{
+    message.write(foo, 0, foo.length);
+  }
+  public boolean verify(byte[] sig) throws Exception{
+    int i=0;
+    int j=0;
+    byte[] tmp;
+
+    if(sig.length!=64){
+      // string "ssh-ed25519", string signature
+      j=((sig[i++]<<24)&0xff000000)|((sig[i++]<<16)&0x00ff0000)|
+        ((sig[i++]<<8)&0x0000ff00)|((sig[i++])&0x000000ff);
+      i+=j;
+      j=((sig[i++]<<24)&0xff000000)|((sig[i++]<<16)&0x00ff0000)|
+        ((sig[i++]<<8)&0x0000ff00)|((sig[i++])&0x000000ff);
+      tmp=new byte[j]; 
+      System.arraycopy(sig, i, tmp, 0, j); sig=tmp;
+    }
+
+    byte[] m=message.toByteArray();
+    message.reset();
+    return Ed25519.verify(pub, m, sig);
+  }
+}
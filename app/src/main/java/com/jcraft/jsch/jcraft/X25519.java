@@ -0,0 +1,135 @@
+/* -*-mode:java; c-basic-offset:2; indent-tabs-mode:nil -*- */
+/*
+Copyright (c) 2002-2014 ymnk, JCraft,Inc. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+  1. Redistributions of source code must retain the above copyright notice,
+     this list of conditions and the following disclaimer.
+
+  2. Redistributions in binary form must reproduce the above copyright 
+     notice, this list of conditions and the following disclaimer in 
+     the documentation and/or other materials provided with the distribution.
+
+  3. The names of the authors may not be used to endorse or promote products
+     derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL JCRAFT,
+INC. OR ANY CONTRIBUTORS TO THIS SOFTWARE BE LIABLE FOR ANY DIRECT, INDIRECT,
+INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.jcraft.jsch.jcraft;
+
+import com.jcraft.jsch.XDH;
+import java.security.SecureRandom;
+
+/**
+ * X25519, computed with the Montgomery ladder of RFC 7748 5.
+ */
+public class X25519 implements XDH{
+  private static SecureRandom random=null;
+
+  private byte[] k=new byte[32];
+
+  private static final byte[] base=new byte[32];
+  static{ base[0]=9; }
+
+  public void init() throws Exception{
+    synchronized(X25519.class){
+      if(random==null){
+        random=new SecureRandom();
+      }
+      random.nextBytes(k);
+    }
+  }
+
+  public byte[] getPublicKey() throws Exception{
+    return scalarMult(k, base);
+  }
+
+  public byte[] getSharedSecret(byte[] peer) throws Exception{
+    if(peer.length!=32){
+      throw new Exception("invalid X25519 public key");
+    }
+    byte[] s=scalarMult(k, peer);
+    int d=0;
+    for(int i=0; i<32; i++){
+      d|=s[i];
+    }
+    if(d==0){
+      throw new Exception("invalid X25519 shared secret");
+    }
+    return s;
+  }
+
+  static byte[] scalarMult(byte[] scalar, byte[] u){
+    byte[] e=new byte[32];
+    System.arraycopy(scalar, 0, e, 0, 32);
+    e[0]&=(byte)248;
+    e[31]&=127;
+    e[31]|=64;
+
+    int[] x1=new int[10];
+    int[] x2=new int[10];
+    int[] z2=new int[10];
+    int[] x3=new int[10];
+    int[] z3=new int[10];
+    int[] a=new int[10];
+    int[] aa=new int[10];
+    int[] b=new int[10];
+    int[] bb=new int[10];
+    int[] c=new int[10];
+    int[] d=new int[10];
+    int[] t=new int[10];
+
+    Field25519.fromBytes(x1, u, 0);
+    Field25519.one(x2);
+    Field25519.copy(x3, x1);
+    Field25519.one(z3);
+
+    int swap=0;
+    for(int pos=254; pos>=0; pos--){
+      int bit=(e[pos>>3]>>(pos&7))&1;
+      swap^=bit;
+      Field25519.cswap(x2, x3, swap);
+      Field25519.cswap(z2, z3, swap);
+      swap=bit;
+
+      Field25519.add(a, x2, z2);
+      Field25519.sub(b, x2, z2);
+      Field25519.add(c, x3, z3);
+      Field25519.sub(d, x3, z3);
+      Field25519.mul(d, d, a);       // DA
+      Field25519.mul(c, c, b);       // CB
+      Field25519.sq(aa, a);
+      Field25519.sq(bb, b);
+      Field25519.add(t, d, c);
+      Field25519.sq(x3, t);          // (DA+CB)^2
+      Field25519.sub(t, d, c);
+      Field25519.sq(t, t);
+      Field25519.mul(z3, x1, t);     // x1*(DA-CB)^2
+      Field25519.mul(x2, aa, bb);
+      Field25519.sub(b, aa, bb);     // E
+      Field25519.mul121665(t, b);
+      Field25519.add(t, t, aa);
+      Field25519.mul(z2, b, t);      // E*(AA+a24*E)
+    }
+    Field25519.cswap(x2, x3, swap);
+    Field25519.cswap(z2, z3, swap);
+
+    Field25519.invert(z2, z2);
+    Field25519.mul(x2, x2, z2);
+    byte[] out=new byte[32];
+    Field25519.toBytes(out, 0, x2);
+    return out;
+  }
+}
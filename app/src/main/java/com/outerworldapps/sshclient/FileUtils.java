@@ -208,12 +208,23 @@ public class FileUtils {
                                 long skip = ranos.length ();
                                 if ((ranis != null) && (skip > 16384) && (skip > total / 128)) {
                                     skip = (skip - 4096) & -4096;
-                                    ranis.seek (skip);
                                 } else {
                                     skip = 0;
                                 }
                                 ranos.seek (skip);
-                                if (seqis == null) {
+
+                                // a big remote file comes in faster over several channels at once.
+                                // it still arrives in order so the temp file only ever holds a
+                                // contiguous prefix and the resume above stays valid.
+                                // close the plain stream first so its channel can be one of them.
+                                InputStream segis = oldFile.getSegmentedInputStream (skip);
+                                if (segis != null) {
+                                    if (ranis != null) ranis.close ();
+                                    if (seqis != null) seqis.close ();
+                                    ranis = null;
+                                    seqis = segis;
+                                } else if (seqis == null) {
+                                    ranis.seek (skip);
                                     seqis = ranis;
                                     ranis = null;
                                 }
@@ -117,6 +117,16 @@ public abstract class IFile {
         return file;
     }
 
+    /**
+     * Get a stream that reads the file from the given position to its end
+     * by fetching several parts of it at once, or null if the file system
+     * has nothing faster than getInputStream() for this file.
+     */
+    public InputStream getSegmentedInputStream (long pos) throws IOException
+    {
+        return null;
+    }
+
     /**
      * List files in a directory, but return null if not a directory.
      * Throws exception for any other error.
@@ -37,6 +37,7 @@ import android.widget.ScrollView;
 import com.jcraft.jsch.HostKey;
 import com.jcraft.jsch.HostKeyRepository;
 import com.jcraft.jsch.JSch;
+import com.jcraft.jsch.JSchException;
 import com.jcraft.jsch.UserInfo;
 
 import java.io.BufferedReader;
@@ -67,6 +68,8 @@ public class MyHostKeyRepo implements HostKeyRepository {
 
     /**
      * Checks if <code>host</code> is included with the <code>key</code>.
+     * Only keys of the same type are compared, so a host we know by its
+     * RSA key that now offers an ECDSA key is NOT_INCLUDED, not CHANGED.
      *
      * @return #NOT_INCLUDED, #OK or #CHANGED
      * @see #NOT_INCLUDED
@@ -77,11 +80,17 @@ public class MyHostKeyRepo implements HostKeyRepository {
     public int check (String host, byte[] key)
     {
         int rc = HostKeyRepository.NOT_INCLUDED;
+        String type = null;
+        try {
+            type = new HostKey (host, key).getType ();
+        } catch (JSchException je) {
+        }
         synchronized (pool) {
             if (pool.containsKey (host)) {
                 List<HostKey> hks = pool.get (host);
                 for (HostKey hk : hks) {
                     if (!hk.getHost ().equals (host)) continue;
+                    if ((type != null) && !hk.getType ().equals (type)) continue;
                     if (Arrays.equals (KeyStr2Bin (hk.getKey ()), key)) {
                         return HostKeyRepository.OK;
                     }
@@ -221,7 +230,7 @@ public class MyHostKeyRepo implements HostKeyRepository {
      * @param host a hostname used in searching host keys.
      *        If <code>null</code> is given, every host key will be listed.
      * @param type a key type used in searching host keys,
-     *        and it should be "ssh-dss" or "ssh-rsa".
+     *        such as "ssh-rsa" or "ecdsa-sha2-nistp256".
      *        If <code>null</code> is given, a key type type will not be ignored.
      */
     @Override // HostKeyRepository
@@ -392,6 +401,9 @@ public class MyHostKeyRepo implements HostKeyRepository {
         int hkt = 0;
         if (type.equals ("ssh-dss")) hkt = HostKey.SSHDSS;
         if (type.equals ("ssh-rsa")) hkt = HostKey.SSHRSA;
+        if (type.equals ("ecdsa-sha2-nistp256")) hkt = HostKey.ECDSA256;
+        if (type.equals ("ecdsa-sha2-nistp384")) hkt = HostKey.ECDSA384;
+        if (type.equals ("ecdsa-sha2-nistp521")) hkt = HostKey.ECDSA521;
         if (hkt == 0) throw new RuntimeException ("bad keytype " + type);
         return hkt;
     }
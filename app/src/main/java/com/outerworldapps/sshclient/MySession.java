@@ -35,6 +35,8 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.widget.Button;
 import android.widget.LinearLayout;
+import android.widget.ScrollView;
+import android.widget.TextView;
 
 import com.jcraft.jsch.ChannelShell;
 import com.jcraft.jsch.JSch;
@@ -42,6 +44,7 @@ import com.jcraft.jsch.Session;
 
 import java.io.IOException;
 import java.io.OutputStreamWriter;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.TreeMap;
 
@@ -297,6 +300,46 @@ public class MySession extends LinearLayout {
         currentAlertDialog = ab.show ();
     }
 
+    /**
+     * Display the transport statistics of the connection.
+     * The numbers are refreshed once a second while the box is up.
+     */
+    public void ShowSessionStats ()
+    {
+        final Session jses = (screendatathread == null) ? null : screendatathread.jsession;
+        if (jses == null) {
+            sshclient.ErrorAlert ("Session stats", "Not connected");
+            return;
+        }
+
+        final TextView tv = sshclient.MyTextView ();
+        tv.setText (SessionStatsText (jses));
+        ScrollView sv = new ScrollView (sshclient);
+        sv.addView (tv);
+
+        AlertDialog.Builder ab = new AlertDialog.Builder (sshclient);
+        ab.setTitle ("Session stats");
+        ab.setView (sv);
+        ab.setPositiveButton ("OK", null);
+        final AlertDialog ad = ab.show ();
+
+        tv.postDelayed (new Runnable () {
+            @Override
+            public void run ()
+            {
+                if (ad.isShowing ()) {
+                    tv.setText (SessionStatsText (jses));
+                    tv.postDelayed (this, 1000);
+                }
+            }
+        }, 1000);
+    }
+
+    private static String SessionStatsText (Session jses)
+    {
+        return jses.getMetrics ().toString () + "\nconnect:\n" + jses.getConnectTrace ().toString ();
+    }
+
     /**
      * Set the session's mode, MSM_*
      */
@@ -367,6 +410,8 @@ public class MySession extends LinearLayout {
     private class ConnectionAsyncTask extends AsyncTask<String,Void,Object> {
         private String userhostport;
         private String keypairident;
+        private String authmethods;
+        private String serverauthmethods;
 
         /**
          * Perform connection in a thread cuz it takes a while.
@@ -422,6 +467,7 @@ public class MySession extends LinearLayout {
                 }
                 ScreenMsg ("...setting up session\n");
                 jses = jsch.getSession (username, hostname, portnumber);
+                jses.setConfig ("transport", sshclient.getSettings ().nio_xport.GetValue () ? "nio" : "blocking");
                 jschuserinfo.dbpassword   = null;       // no password is available from database
                 jschuserinfo.password     = null;       // no password has been entered by user
                 jschuserinfo.savePassword = false;      // user has not checked 'save password' checkbox
@@ -429,11 +475,19 @@ public class MySession extends LinearLayout {
                     String savedpw = savedlogin.getPassword ();
                     jschuserinfo.dbpassword = savedpw;  // this password is available in database
                 }
+                if (savedlogin != null) {
+                    SetAuthPlan (jses, savedlogin.getAuthMethods (), savedlogin.getServerAuthMethods ());
+                }
                 jses.setPassword ("");
                 jses.setUserInfo (jschuserinfo);
                 ScreenMsg ("...connecting to host\n");
                 jses.connect (CONN_TIMEOUT_MS);
                 ScreenMsg ("...connection complete\n");
+                if (sshclient.getSettings ().conn_trace.GetValue ()) {
+                    ScreenMsg (jses.getConnectTrace ().toString ().replaceAll ("(?m)^", "   "));
+                }
+                authmethods = jses.getAuthMethods ();
+                serverauthmethods = jses.getServerAuthMethods ();
                 return jses;
             } catch (Exception e) {
                 Log.w (TAG, "connect error", e);
@@ -441,6 +495,31 @@ public class MySession extends LinearLayout {
             }
         }
 
+        /**
+         * Use what we learned from the last connection to this username@hostname[:portnumber]
+         * to skip authentication methods that are doomed to fail.
+         * The methods that worked last time go first, followed by the rest of the
+         * default list as a fallback.  The server's method list is passed along too
+         * so the session doesn't have to probe for it with a "none" request.
+         * @param ok  = methods that succeeded last time (or null if unknown)
+         * @param srv = methods the server advertised last time (or null if unknown)
+         */
+        private void SetAuthPlan (Session jses, String ok, String srv)
+        {
+            if ((ok == null) || (srv == null) || ok.equals ("none")) return;
+            StringBuilder sb = new StringBuilder (ok);
+            String[] oks = ok.split (",");
+            for (String m : JSch.getConfig ("PreferredAuthentications").split (",")) {
+                if (!Arrays.asList (oks).contains (m)) {
+                    sb.append (',');
+                    sb.append (m);
+                }
+            }
+            ScreenMsg ("...trying " + ok + " first\n");
+            jses.setConfig ("PreferredAuthentications", sb.toString ());
+            jses.setConfig ("ServerAuthentications", srv);
+        }
+
         /**
          * Select keypair suitable for this connection.
          * @param lastone = null: no keypair was used last time we connected to this username@hostname[:portnumber]
@@ -514,6 +593,7 @@ public class MySession extends LinearLayout {
                 String kpi = keypairident;
                 String pwd = jschuserinfo.savePassword ? jschuserinfo.getPassword () : null;
                 SavedLogin sh = new SavedLogin (uhp, kpi, pwd);
+                sh.setAuthPlan (authmethods, serverauthmethods);
                 sshclient.getSavedlogins ().put (sh);
                 sshclient.getSavedlogins ().SaveChanges ();
 
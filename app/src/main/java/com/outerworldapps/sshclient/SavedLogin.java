@@ -56,6 +56,16 @@ public class SavedLogin {
         if (!datavalues.equals ("")) datavalues = datavalues.substring (1);
     }
 
+    // remember how authentication went so next connect can go straight to it
+    // - ok  = methods that succeeded, in order (or null if unknown)
+    // - srv = methods the server advertised (or null if unknown)
+    public void setAuthPlan (String ok, String srv)
+    {
+        if ((ok == null) || (srv == null)) return;
+        if (!datavalues.equals ("")) datavalues += "&";
+        datavalues += "authok=" + DataEncode (ok) + "&authsrv=" + DataEncode (srv);
+    }
+
     // get username@hostname[:portnumber] string
     public String getUserAtHost () { return userathost; }
 
@@ -77,6 +87,12 @@ public class SavedLogin {
             if (!sb.toString ().equals ("")) sb.append (", ");
             sb.append ("pw");
         }
+        String ao = getAuthMethods ();
+        if (ao != null) {
+            if (!sb.toString ().equals ("")) sb.append (", ");
+            sb.append ("auth=");
+            sb.append (ao);
+        }
         String st = sb.toString ();
         if (!st.equals ("")) {
             st = "\n" + st;
@@ -96,6 +112,18 @@ public class SavedLogin {
         return getValue ("password");
     }
 
+    // retrieve authentication methods that succeeded last time, null if not stored
+    public String getAuthMethods ()
+    {
+        return getValue ("authok");
+    }
+
+    // retrieve authentication methods server advertised last time, null if not stored
+    public String getServerAuthMethods ()
+    {
+        return getValue ("authsrv");
+    }
+
     private String getValue (String key)
     {
         int i = datavalues.indexOf (key + "=");
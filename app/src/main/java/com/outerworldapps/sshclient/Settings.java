@@ -56,6 +56,8 @@ public class Settings {
     public _Bool incl_hid   = new _Bool ("inclHidden", "Include hidden files", false);
     public _Bool show_eols  = new _Bool ("showEOLs",   "Show EOL markers",     false);
     public _Bool wrap_lines = new _Bool ("wrapLines",  "Wrap long lines",      true);
+    public _Bool nio_xport  = new _Bool ("nioXport",   "Share I/O thread between sessions", false);
+    public _Bool conn_trace = new _Bool ("connTrace",  "Show connection timing", false);
 
     public _FontSize font_size = new _FontSize ("fontSize", "Font size", 20, TEXT_SIZE_MIN, TEXT_SIZE_MAX);
     public _MaxChars max_chars = new _MaxChars ("maxChars", "Max total chars", 65536, 64, 1024*1024);
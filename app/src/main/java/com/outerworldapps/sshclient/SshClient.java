@@ -507,6 +507,11 @@ public class SshClient extends Activity {
                 savedlogins.ShowSavedLoginsMenu ();
             }
         });
+        AddXMenuItem (xmll, "session stats", new Runnable () {
+            public void run () {
+                currentsession.ShowSessionStats ();
+            }
+        });
         AddXMenuItem (xmll, "sessions", new Runnable () {
             public void run () {
                 ShowSessionsMenu ();
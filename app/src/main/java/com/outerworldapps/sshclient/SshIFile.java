@@ -33,10 +33,12 @@ import com.jcraft.jsch.JSchException;
 import com.jcraft.jsch.Session;
 import com.jcraft.jsch.SftpATTRS;
 import com.jcraft.jsch.SftpException;
+import com.jcraft.jsch.SftpFuture;
 
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -46,6 +48,19 @@ import java.util.concurrent.atomic.AtomicLong;
 public class SshIFile extends IFile {
     public final static String TAG = "SshClient";
 
+    // files with at least SEGMENTED_MIN bytes left to read are downloaded
+    // SEGMENT_SIZE bytes at a time over up to SEGMENT_CHANNELS channels,
+    // getting at most SEGMENTS_AHEAD segments ahead of the reader.  each
+    // channel has up to SEGMENTS_CLAIMED segments on the way at a time.
+    private final static long SEGMENTED_MIN    = 16 * 1024 * 1024;
+    private final static int  SEGMENT_SIZE     = 1024 * 1024;
+    private final static int  SEGMENT_CHANNELS = 4;
+    private final static int  SEGMENTS_AHEAD   = 2 * SEGMENT_CHANNELS;
+    private final static int  SEGMENTS_CLAIMED = SEGMENTS_AHEAD / SEGMENT_CHANNELS;
+
+    // most symlink stat requests statLinks() has outstanding at once
+    private final static int  STATS_AHEAD = 64;
+
     private static class ChanEnt {
         public ChannelSftp chan;
         int idle;
@@ -215,6 +230,14 @@ public class SshIFile extends IFile {
         }
     }
 
+    @Override
+    public InputStream getSegmentedInputStream (long pos) throws IOException
+    {
+        long end = length ();
+        if (end - pos < SEGMENTED_MIN) return null;
+        return new SshSegIStream (pos, end);
+    }
+
     @Override
     public IFile getParentFile ()
     {
@@ -330,6 +353,7 @@ public class SshIFile extends IFile {
         try {
             ListFilesSelector lfs = new ListFilesSelector ();
             chanEnt.chan.ls (abspath, lfs);
+            statLinks (chanEnt, lfs.linkList);
             return lfs.fileList.toArray (zeroIFileArray);
         } catch (SftpException se) {
             throw new SshLsException (se);
@@ -340,6 +364,7 @@ public class SshIFile extends IFile {
 
     private class ListFilesSelector implements ChannelSftp.LsEntrySelector {
         public LinkedList<IFile> fileList = new LinkedList<IFile> ();
+        public LinkedList<SshIFile> linkList = new LinkedList<SshIFile> ();
         @Override
         public int select (ChannelSftp.LsEntry entry)
         {
@@ -347,12 +372,42 @@ public class SshIFile extends IFile {
             if (!fn.equals (".") && !fn.equals ("..")) {
                 SshIFile sif = (SshIFile) getChildFile (fn);
                 sif.cacheLStat = entry.getAttrs ();
+                if (sif.cacheLStat.isLink ()) {
+                    linkList.addLast (sif);
+                } else {
+                    sif.cacheStat = sif.cacheLStat;
+                }
                 fileList.addLast (sif);
             }
             return ChannelSftp.LsEntrySelector.CONTINUE;
         }
     }
 
+    // get the targets' attributes for all the symlinks in a directory
+    // with all the requests outstanding at once, so formatting a listing
+    // doesn't cost a round trip per link
+    // links whose target can't be stat'd for any reason are left uncached,
+    // so they get looked up again, and fail then, only if actually used
+    // at most STATS_AHEAD requests are outstanding so the replies always
+    // fit in the channel's input buffer, else with enough links the session
+    // thread blocks on the full buffer and can't take in the window adjust
+    // we are waiting for to send the rest of the requests
+    private static void statLinks (ChanEnt chanEnt, LinkedList<SshIFile> linkList) throws SftpException
+    {
+        LinkedList<SftpFuture> futures = new LinkedList<SftpFuture> ();
+        Iterator<SshIFile> toSend = linkList.iterator ();
+        for (SshIFile sif : linkList) {
+            while (toSend.hasNext () && (futures.size () < STATS_AHEAD)) {
+                futures.addLast (chanEnt.chan.statAsync (toSend.next ().abspath, null));
+            }
+            try {
+                sif.cacheStat = (SftpATTRS) futures.removeFirst ().get ();
+            } catch (SftpException se) {
+                Log.d (TAG, "statLinks() " + sif.abspath, se);
+            }
+        }
+    }
+
     @Override
     public void mkdir () throws IOException
     {
@@ -768,6 +823,201 @@ public class SshIFile extends IFile {
         }
     }
 
+    /**
+     * Reads the file from a given position to the end it had when opened.
+     * Segments are handed out to fetcher threads in order, each of which
+     * reads them over its own pooled channel, and are given back to the
+     * reader in order, so the reader sees a plain sequential stream.
+     * Each fetcher keeps the file open and asks for its next segment
+     * while the current one is still arriving, so its channel never
+     * goes idle between segments.
+     */
+    private class SshSegIStream extends InputStream {
+        private byte[] bbuf = new byte[1];
+        private byte[] curseg;     // segment being read, null if none
+        private Exception failure; // first exception from a fetcher
+        private HashMap<Integer,byte[]> fetched = new HashMap<Integer,byte[]> ();
+        private boolean closed;
+        private boolean started;
+        private int curpos;        // position in curseg
+        private int nextFetch;     // next segment to be fetched
+        private int nextRead;      // next segment to be read
+        private int numSegs;
+        private LinkedList<byte[]> freeSegs = new LinkedList<byte[]> ();
+        private long start;
+        private long end;
+
+        public SshSegIStream (long start, long end)
+        {
+            this.start = start;
+            this.end   = end;
+            numSegs    = (int) ((end - start + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+        }
+
+        // the fetchers start on the first read so a channel the caller
+        // frees up after opening us can be reused by one of them
+        private void startFetchers ()
+        {
+            started = true;
+            for (int i = 0; (i < SEGMENT_CHANNELS) && (i < numSegs); i ++) {
+                Thread t = new FetchThread ();
+                t.setDaemon (true);
+                t.start ();
+            }
+        }
+
+        public int read (byte[] buffer) throws IOException { return read (buffer, 0, buffer.length); }
+        public int read () throws IOException { return (read (bbuf, 0, 1) <= 0) ? -1 : (int)bbuf[0] & 0xFF; }
+
+        public int read (byte[] buffer, int offset, int count) throws IOException
+        {
+            if (count == 0) return 0;
+            if (curseg == null) {
+                synchronized (this) {
+                    if (closed) throw new IOException ("stream closed");
+                    if (nextRead >= numSegs) return -1;
+                    if (!started) startFetchers ();
+                    while ((curseg = fetched.remove (nextRead)) == null) {
+                        if (failure != null) throw new SftpIOException (failure);
+                        try {
+                            wait ();
+                        } catch (InterruptedException ie) {
+                            throw new InterruptedIOException ();
+                        }
+                    }
+                    nextRead ++;
+                    curpos = 0;
+                    notifyAll ();
+                }
+            }
+            if (count > curseg.length - curpos) count = curseg.length - curpos;
+            System.arraycopy (curseg, curpos, buffer, offset, count);
+            curpos += count;
+            if (curpos == curseg.length) {
+                synchronized (this) {
+                    if (curseg.length == SEGMENT_SIZE) freeSegs.addLast (curseg);
+                }
+                curseg = null;
+            }
+            return count;
+        }
+
+        // the fetchers finish the segment they are on then give their channels back
+        public void close ()
+        {
+            synchronized (this) {
+                closed = true;
+                fetched.clear ();
+                freeSegs.clear ();
+                notifyAll ();
+            }
+            curseg = null;
+        }
+
+        private class FetchThread extends Thread implements ChannelSftp.RangeSource {
+            private LinkedList<Integer> claimed = new LinkedList<Integer> ();  // not yet read, in order
+            private LinkedList<Integer> unsent  = new LinkedList<Integer> ();  // not yet given to the channel
+
+            @Override
+            public void run ()
+            {
+                ChanEnt chanEnt = null;
+                InputStream is = null;
+                try {
+                    chanEnt = aboutToUseChannel ();
+                    while (true) {
+
+                        // if we have nothing on the way, wait until we are within SEGMENTS_AHEAD of the reader
+                        if (claimed.isEmpty ()) {
+                            if (!awaitSegment ()) break;
+                            int seg = claim ();
+                            if (seg < 0) continue;
+                            claimed.addLast (seg);
+                            unsent.addLast (seg);
+                        }
+
+                        // read our oldest segment in over our channel
+                        // ...the channel sends reads for the following ones as it needs them
+                        int seg     = claimed.getFirst ();
+                        long offset = start + (long) seg * SEGMENT_SIZE;
+                        int length  = (int) Math.min (SEGMENT_SIZE, end - offset);
+                        byte[] data = null;
+                        synchronized (SshSegIStream.this) {
+                            if (closed) break;
+                            if (!freeSegs.isEmpty ()) data = freeSegs.removeFirst ();
+                        }
+                        if ((data == null) || (data.length != length)) data = new byte[length];
+                        if (is == null) is = chanEnt.chan.get (abspath, null, this);
+                        for (int ofs = 0; ofs < length;) {
+                            int rc = is.read (data, ofs, length - ofs);
+                            if (rc < 0) throw new EOFException ();
+                            ofs += rc;
+                        }
+                        claimed.removeFirst ();
+
+                        synchronized (SshSegIStream.this) {
+                            if (!closed) fetched.put (seg, data);
+                            SshSegIStream.this.notifyAll ();
+                        }
+                    }
+                } catch (Exception e) {
+                    synchronized (SshSegIStream.this) {
+                        if (failure == null) failure = e;
+                        SshSegIStream.this.notifyAll ();
+                    }
+                } finally {
+                    if (is != null) {
+                        try {
+                            is.close ();
+                        } catch (IOException ioe) {
+                            Log.w (TAG, "error closing " + abspath, ioe);
+                        }
+                    }
+                    if (chanEnt != null) finishedUsingChannel (chanEnt);
+                }
+            }
+
+            // ChannelSftp.RangeSource, called by is.read() on this thread
+            // we only read while holding a claimed segment, so a null here
+            // never finds the stream with nothing outstanding and ends it
+            public long[] next ()
+            {
+                Integer seg = unsent.poll ();
+                if (seg == null) {
+                    if (claimed.size () >= SEGMENTS_CLAIMED) return null;
+                    int s = claim ();
+                    if (s < 0) return null;
+                    claimed.addLast (s);
+                    seg = s;
+                }
+                long offset = start + (long) seg * SEGMENT_SIZE;
+                return new long[] { offset, Math.min (SEGMENT_SIZE, end - offset) };
+            }
+
+            // wait until a segment can be claimed, false if there are none left to fetch
+            private boolean awaitSegment () throws InterruptedException
+            {
+                synchronized (SshSegIStream.this) {
+                    while (!closed && (failure == null) && (nextFetch < numSegs) &&
+                            (nextFetch >= nextRead + SEGMENTS_AHEAD)) {
+                        SshSegIStream.this.wait ();
+                    }
+                    return !closed && (failure == null) && (nextFetch < numSegs);
+                }
+            }
+
+            // claim the next segment if that keeps us within SEGMENTS_AHEAD of the reader, else -1
+            private int claim ()
+            {
+                synchronized (SshSegIStream.this) {
+                    if (closed || (failure != null) || (nextFetch >= numSegs) ||
+                            (nextFetch >= nextRead + SEGMENTS_AHEAD)) return -1;
+                    return nextFetch ++;
+                }
+            }
+        }
+    }
+
     private class SshRAOStream extends RAOutputStream {
         private byte[] bbuf = new byte[1];
         private ChanEnt chanEnt;